@@ -0,0 +1,196 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.LongUnaryOperator;
+
+// Benchmark harness for the solver and the timetable data structures.
+//
+// Each benchmark runs warmup iterations, then measured iterations of a fixed
+// duration, and reports the average time per operation. Results are written as
+// JSON in the layout JMH uses (benchmark, mode, params, primaryMetric), so the
+// same tooling can track regressions.
+//
+// Usage: java SolverBenchmark [--teachers 40] [--subjects 10] [--rooms 12]
+//        [--periods 9] [--sections 4] [--seed 1] [--warmup 3] [--iterations 5]
+//        [--time 1000] [--filter text] [--out bench-results.json]
+class SolverBenchmark {
+
+    // Consumes benchmark results so the JIT cannot drop the measured work
+    private static volatile long sink;
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final List<String> results = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        SolverBenchmark benchmark = new SolverBenchmark(args);
+        benchmark.runAll();
+        benchmark.writeResults();
+    }
+
+    private SolverBenchmark(String[] args) {
+        options.put("teachers", "40");
+        options.put("subjects", "10");
+        options.put("rooms", "12");
+        options.put("periods", "9");
+        options.put("sections", "4");
+        options.put("seed", "1");
+        options.put("warmup", "3");
+        options.put("iterations", "5");
+        options.put("time", "1000");
+        options.put("filter", "");
+        options.put("out", "bench-results.json");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String name = args[i].replaceFirst("^--", "");
+            if (!options.containsKey(name)) {
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+            options.put(name, args[i + 1]);
+        }
+    }
+
+    private int option(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    private void runAll() {
+        long seed = Long.parseLong(options.get("seed"));
+        int periodsPerDay = option("periods");
+        SyntheticProblem problem = new SyntheticProblem(option("teachers"), option("subjects"),
+                option("rooms"), periodsPerDay, option("sections"), seed);
+
+        // End to end: one operation is one complete generation
+        for (SolverEngine engine : SolverEngine.values()) {
+            run("generateTimetable." + engine.name().toLowerCase(), invocation -> {
+                TimetableGenerator generator = newGenerator(periodsPerDay, engine, seed + invocation);
+                Timetable timetable = generator.generateTimetable(
+                        problem.getTeachers(), problem.getSubjects(), problem.getClassrooms());
+                return timetable.getEntryCount();
+            });
+            run("generateTimetables." + engine.name().toLowerCase(), invocation -> {
+                TimetableGenerator generator = newGenerator(periodsPerDay, engine, seed + invocation);
+                SchoolTimetable school = generator.generateTimetables(
+                        problem.getSections(), problem.getTeachers(), problem.getClassrooms());
+                return school.getGroups().size();
+            });
+        }
+
+        // Lookups against one generated timetable: one operation is one call
+        TimetableGenerator generator = newGenerator(periodsPerDay, SolverEngine.GREEDY, seed);
+        Timetable timetable = generator.generateTimetable(
+                problem.getTeachers(), problem.getSubjects(), problem.getClassrooms());
+        Teacher[] teachers = problem.getTeachers().toArray(new Teacher[0]);
+        Classroom[] classrooms = problem.getClassrooms().toArray(new Classroom[0]);
+        Timeslot[] timeslots = new Timeslot[timetable.getSlotCount()];
+        for (int slot = 0; slot < timeslots.length; slot++) {
+            timeslots[slot] = timetable.getTimeslot(slot);
+        }
+        int days = timetable.getDays();
+        TimetableTableModel model = new TimetableTableModel(periodsPerDay);
+        model.setTimetable(timetable);
+
+        run("isTeacherAvailable", i -> timetable.isTeacherAvailable(
+                teachers[(int) (i % teachers.length)], timeslots[(int) (i % timeslots.length)]) ? 1 : 0);
+        run("isClassroomAvailable", i -> timetable.isClassroomAvailable(
+                classrooms[(int) (i % classrooms.length)], timeslots[(int) (i % timeslots.length)]) ? 1 : 0);
+        run("getEntry", i -> timetable.getEntry((int) (i % days), (int) (i / days % periodsPerDay) + 1) != null ? 1 : 0);
+        run("TimetableTableModel.getValueAt", i -> model.getValueAt(
+                (int) (i % periodsPerDay), (int) (i / periodsPerDay % days) + 1) != null ? 1 : 0);
+    }
+
+    private static TimetableGenerator newGenerator(int periodsPerDay, SolverEngine engine, long seed) {
+        TimetableGenerator generator = new TimetableGenerator(periodsPerDay, engine);
+        generator.setSeed(seed);
+        generator.setReportUnscheduled(false);
+        return generator;
+    }
+
+    // Measures one benchmark; the body gets the invocation number and returns a value to consume
+    private void run(String name, LongUnaryOperator body) {
+        if (!name.contains(options.get("filter"))) {
+            return;
+        }
+        long iterationNanos = option("time") * 1_000_000L;
+        long invocation = 0;
+        for (int i = 0; i < option("warmup"); i++) {
+            invocation = iterate(body, invocation, iterationNanos, null, 0);
+        }
+        double[] scores = new double[option("iterations")];
+        for (int i = 0; i < scores.length; i++) {
+            invocation = iterate(body, invocation, iterationNanos, scores, i);
+        }
+
+        double mean = Arrays.stream(scores).average().orElse(Double.NaN);
+        double variance = Arrays.stream(scores).map(s -> (s - mean) * (s - mean)).sum() / Math.max(1, scores.length - 1);
+        // Normal approximation of the 99.9% confidence interval
+        double error = 3.291 * Math.sqrt(variance / scores.length);
+        System.out.printf("%-36s %14.1f +- %10.1f ns/op%n", name, mean, error);
+        results.add(toJson(name, mean, error, scores));
+    }
+
+    // Runs the body in growing batches until the iteration time is used up
+    private long iterate(LongUnaryOperator body, long invocation, long iterationNanos, double[] scores, int index) {
+        long operations = 0;
+        long batch = 1;
+        long started = System.nanoTime();
+        long elapsed;
+        long consumed = 0;
+        do {
+            for (long i = 0; i < batch; i++) {
+                consumed += body.applyAsLong(invocation++);
+            }
+            operations += batch;
+            elapsed = System.nanoTime() - started;
+            // Grow the batch, but not past what the remaining time allows
+            long remaining = (iterationNanos - elapsed) * operations / Math.max(1, elapsed);
+            batch = Math.max(1, Math.min(batch * 2, remaining));
+        } while (elapsed < iterationNanos);
+        sink += consumed;
+        if (scores != null) {
+            scores[index] = (double) elapsed / operations;
+        }
+        return invocation;
+    }
+
+    private String toJson(String name, double score, double error, double[] rawData) {
+        StringBuilder params = new StringBuilder();
+        for (String key : List.of("teachers", "subjects", "rooms", "periods", "sections", "seed")) {
+            if (params.length() > 0) params.append(", ");
+            params.append('"').append(key).append("\": \"").append(options.get(key)).append('"');
+        }
+        StringBuilder raw = new StringBuilder();
+        for (double value : rawData) {
+            if (raw.length() > 0) raw.append(", ");
+            raw.append(String.format(Locale.ROOT, "%.3f", value));
+        }
+        return String.format(Locale.ROOT,
+                "  {\n"
+                        + "    \"benchmark\": \"%s\",\n"
+                        + "    \"mode\": \"avgt\",\n"
+                        + "    \"warmupIterations\": %s,\n"
+                        + "    \"measurementIterations\": %s,\n"
+                        + "    \"measurementTimeMillis\": %s,\n"
+                        + "    \"params\": {%s},\n"
+                        + "    \"primaryMetric\": {\n"
+                        + "      \"score\": %.3f,\n"
+                        + "      \"scoreError\": %.3f,\n"
+                        + "      \"scoreUnit\": \"ns/op\",\n"
+                        + "      \"rawData\": [[%s]]\n"
+                        + "    }\n"
+                        + "  }",
+                name, options.get("warmup"), options.get("iterations"), options.get("time"),
+                params, score, Double.isNaN(error) ? 0.0 : error, raw);
+    }
+
+    private void writeResults() throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(
+                Paths.get(options.get("out")), StandardCharsets.UTF_8))) {
+            out.println("[");
+            out.println(String.join(",\n", results));
+            out.println("]");
+        }
+        System.out.println("Results written to " + options.get("out"));
+    }
+}
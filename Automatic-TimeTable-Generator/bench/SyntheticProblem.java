@@ -0,0 +1,68 @@
+import java.util.*;
+
+// Reproducible random problem for benchmarks: teachers, subjects, rooms and
+// sections are generated from a seed, so every run measures the same input.
+class SyntheticProblem {
+
+    // Subjects with special rules come first so every problem exercises them
+    private static final String[] NAMED_SUBJECTS = {
+            "Combined Maths", "Biology", "Physics", "Chemistry", "English", "Git"
+    };
+
+    private final int periodsPerDay;
+    private final List<Teacher> teachers = new ArrayList<>();
+    private final List<Subject> subjects = new ArrayList<>();
+    private final List<Classroom> classrooms = new ArrayList<>();
+    private final List<ClassGroup> sections = new ArrayList<>();
+
+    public SyntheticProblem(int teacherCount, int subjectCount, int roomCount,
+                            int periodsPerDay, int sectionCount, long seed) {
+        this.periodsPerDay = periodsPerDay;
+        Random random = new Random(seed);
+
+        for (int i = 0; i < subjectCount; i++) {
+            String name = i < NAMED_SUBJECTS.length ? NAMED_SUBJECTS[i] : "Subject " + (i + 1);
+            subjects.add(new Subject(name, 2 + random.nextInt(3), random.nextInt(4) == 0));
+        }
+
+        // Every subject gets at least one teacher; the rest teach two random subjects
+        for (int i = 0; i < teacherCount; i++) {
+            List<String> taught = new ArrayList<>();
+            taught.add(subjects.get(i % subjectCount).getName());
+            String second = subjects.get(random.nextInt(subjectCount)).getName();
+            if (!taught.contains(second)) {
+                taught.add(second);
+            }
+            teachers.add(new Teacher("Teacher " + (i + 1), taught, 4 + random.nextInt(3)));
+        }
+
+        // Every fourth room is a lab, and there is always at least one
+        for (int i = 0; i < roomCount; i++) {
+            classrooms.add(new Classroom("Room " + (i + 1), i % 4 == 0, 30 + random.nextInt(20)));
+        }
+
+        for (int i = 0; i < sectionCount; i++) {
+            sections.add(new ClassGroup("Section " + (i + 1), subjects));
+        }
+    }
+
+    public int getPeriodsPerDay() {
+        return periodsPerDay;
+    }
+
+    public List<Teacher> getTeachers() {
+        return teachers;
+    }
+
+    public List<Subject> getSubjects() {
+        return subjects;
+    }
+
+    public List<Classroom> getClassrooms() {
+        return classrooms;
+    }
+
+    public List<ClassGroup> getSections() {
+        return sections;
+    }
+}
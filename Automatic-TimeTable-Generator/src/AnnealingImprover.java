@@ -0,0 +1,560 @@
+import java.util.*;
+
+// Simulated-annealing improvement phase for one class group.
+//
+// The constructed timetable is copied into primitive arrays of lessons (a
+// block of consecutive periods or a single period). Moves insert an unplaced
+// lesson, move a lesson, swap two lessons, or change a lesson's teacher or
+// room. Hard rules are never broken; the score counts unplaced periods, uneven
+// daily load and free periods between lessons. A move only touches the days it
+// changes, so each one is scored in O(periods per day). With a TimetableScorer,
+// its soft constraints are added to the score period by period as lessons move.
+// States are compared on placed periods first and score second, so no score
+// gain is worth leaving a lesson out.
+class AnnealingImprover {
+
+    private static final int UNPLACED_WEIGHT = 1000;
+    private static final int BALANCE_WEIGHT = 1;
+    private static final int GAP_WEIGHT = 5;
+
+    private final TimetableGenerator rules;
+    private final Random random;
+    private SolveControl control = SolveControl.unlimited();
+    private long maxMoves = 2_000_000;
+    private double startTemperature = 20.0;
+    private double endTemperature = 0.05;
+    private TimetableScorer scorer;
+    private int scorerSection;
+
+    // Calendar
+    private SchoolCalendar calendar;
+    private int periodsPerDay;
+    private int days;
+    private int slotCount;
+
+    // Lessons: subject, length, start slot (-1 when unplaced), teacher and room indexes
+    private int lessonCount;
+    private int[] lessonSubjectId;
+    private int[] lessonLength;
+    private int[] lessonStart;
+    private int[] lessonTeacher;
+    private int[] lessonRoom;
+    private int[][] lessonStarts;
+    private int[][] lessonTeachers;
+    private int[][] lessonRooms;
+
+    // Incremental state
+    private ProblemInstance instance;
+    private int[] slotLesson;       // lesson in each slot, -1 empty, -2 fixed entry
+    private int[] teacherUse;       // teacher * slotCount + slot, includes other sections
+    private int[] roomUse;          // room * slotCount + slot, includes other sections
+    private int[] teacherDayLoad;   // teacher * days + day, includes other sections
+    private int[] teacherLimit;     // periods per day
+    private int[] subjectDayCount;  // subject * days + day
+    private int[] dayLoad;
+    private int[] dayScore;
+    private long score;
+    private int placedPeriods;      // includes fixed entries
+
+    private long movesTried;
+
+    public AnnealingImprover(TimetableGenerator rules, Random random) {
+        this.rules = rules;
+        this.random = random;
+    }
+
+    public void setControl(SolveControl control) {
+        this.control = control;
+    }
+
+    public void setMaxMoves(long maxMoves) {
+        this.maxMoves = maxMoves;
+    }
+
+    public void setTemperatures(double startTemperature, double endTemperature) {
+        this.startTemperature = startTemperature;
+        this.endTemperature = endTemperature;
+    }
+
+    // Adds the scorer's soft constraints to the score; `section` is this timetable's
+    // section in the scorer, which is left holding the improved timetable
+    public void setScorer(TimetableScorer scorer, int section) {
+        this.scorer = scorer;
+        this.scorerSection = section;
+    }
+
+    public long getMovesTried() {
+        return movesTried;
+    }
+
+    // Improves the timetable in place and returns the final score (lower is better);
+    // the timetable must share IDs with the instance
+    public long improve(Timetable timetable, ProblemInstance instance, int[] subjectIds) {
+        this.instance = instance;
+        load(timetable, subjectIds);
+
+        long bestScore = score;
+        int bestPlaced = placedPeriods;
+        int[] bestStart = lessonStart.clone();
+        int[] bestTeacher = lessonTeacher.clone();
+        int[] bestRoom = lessonRoom.clone();
+
+        double temperature = startTemperature;
+        double cooling = Math.pow(endTemperature / startTemperature, 1.0 / Math.max(1, maxMoves));
+
+        for (movesTried = 0; movesTried < maxMoves && lessonCount > 0; movesTried++) {
+            if ((movesTried & 4095) == 0) {
+                control.reportScore(bestScore);
+                control.reportPlacedPeriods(placedPeriods);
+                if (control.isStopped()) {
+                    break;
+                }
+            }
+            long before = score;
+            int placedBefore = placedPeriods;
+            if (!tryRandomMove()) {
+                temperature *= cooling;
+                continue;
+            }
+            long delta = score - before;
+            if (placedPeriods < placedBefore
+                    || delta > 0 && random.nextDouble() >= Math.exp(-delta / temperature)) {
+                undoMove();
+            } else if (placedPeriods > bestPlaced || placedPeriods == bestPlaced && score < bestScore) {
+                bestScore = score;
+                bestPlaced = placedPeriods;
+                System.arraycopy(lessonStart, 0, bestStart, 0, lessonCount);
+                System.arraycopy(lessonTeacher, 0, bestTeacher, 0, lessonCount);
+                System.arraycopy(lessonRoom, 0, bestRoom, 0, lessonCount);
+            }
+            temperature *= cooling;
+        }
+
+        store(timetable, bestStart, bestTeacher, bestRoom);
+        if (scorer != null) {
+            scorer.setSection(scorerSection, timetable);
+        }
+        control.reportPlacedPeriods(timetable.getEntryCount());
+        control.reportScore(bestScore);
+        return bestScore;
+    }
+
+    // ---- Moves ----
+
+    // Lessons changed by the last move, with their previous placement
+    private final int[] movedLesson = new int[2];
+    private final int[] movedStart = new int[2];
+    private final int[] movedTeacher = new int[2];
+    private final int[] movedRoom = new int[2];
+    private int movedCount;
+    private int touchedDayA;
+    private int touchedDayB;
+
+    private boolean tryRandomMove() {
+        int lesson = random.nextInt(lessonCount);
+        if (lessonStarts[lesson].length == 0) {
+            return false;
+        }
+        if (lessonStart[lesson] < 0) {
+            // Any candidate may be the one with time left, not just the first
+            int[] teachers = lessonTeachers[lesson];
+            int[] rooms = lessonRooms[lesson];
+            return tryPlace(lesson, randomStart(lesson), teachers[random.nextInt(teachers.length)],
+                    rooms[random.nextInt(rooms.length)]);
+        }
+        switch (random.nextInt(4)) {
+            case 0:
+                return tryPlace(lesson, randomStart(lesson), lessonTeacher[lesson], lessonRoom[lesson]);
+            case 1:
+                return trySwap(lesson, random.nextInt(lessonCount));
+            case 2:
+                int[] teachers = lessonTeachers[lesson];
+                return tryPlace(lesson, lessonStart[lesson], teachers[random.nextInt(teachers.length)], lessonRoom[lesson]);
+            default:
+                int[] rooms = lessonRooms[lesson];
+                return tryPlace(lesson, lessonStart[lesson], lessonTeacher[lesson], rooms[random.nextInt(rooms.length)]);
+        }
+    }
+
+    private int randomStart(int lesson) {
+        int[] starts = lessonStarts[lesson];
+        return starts[random.nextInt(starts.length)];
+    }
+
+    // Moves one lesson to a new start/teacher/room, or leaves everything unchanged
+    private boolean tryPlace(int lesson, int start, int teacher, int room) {
+        int oldStart = lessonStart[lesson];
+        if (start == oldStart && teacher == lessonTeacher[lesson] && room == lessonRoom[lesson]) {
+            return false;
+        }
+        beginMove();
+        remember(lesson);
+        int oldDay = dayOf(oldStart);
+        int newDay = start / periodsPerDay;
+        touchedDayA = oldDay;
+        touchedDayB = newDay;
+        long before = affectedScore(oldDay, newDay);
+
+        release(lesson);
+        if (!fits(lesson, start, teacher, room)) {
+            occupy(lesson, oldStart, lessonTeacher[lesson], lessonRoom[lesson]);
+            movedCount = 0;
+            return false;
+        }
+        occupy(lesson, start, teacher, room);
+        score += rescore(oldDay, newDay) - before;
+        return true;
+    }
+
+    // Exchanges the starts of two placed lessons of the same length
+    private boolean trySwap(int first, int second) {
+        int firstStart = lessonStart[first];
+        int secondStart = lessonStart[second];
+        if (first == second || secondStart < 0 || lessonLength[first] != lessonLength[second]
+                || firstStart / periodsPerDay == secondStart / periodsPerDay
+                || !allowed(first, secondStart) || !allowed(second, firstStart)) {
+            return false;
+        }
+        beginMove();
+        remember(first);
+        remember(second);
+        int firstDay = firstStart / periodsPerDay;
+        int secondDay = secondStart / periodsPerDay;
+        touchedDayA = firstDay;
+        touchedDayB = secondDay;
+        long before = affectedScore(firstDay, secondDay);
+
+        release(first);
+        release(second);
+        if (!fits(first, secondStart, lessonTeacher[first], lessonRoom[first])) {
+            restoreMoved();
+            return false;
+        }
+        occupy(first, secondStart, lessonTeacher[first], lessonRoom[first]);
+        if (!fits(second, firstStart, lessonTeacher[second], lessonRoom[second])) {
+            release(first);
+            restoreMoved();
+            return false;
+        }
+        occupy(second, firstStart, lessonTeacher[second], lessonRoom[second]);
+        score += rescore(firstDay, secondDay) - before;
+        return true;
+    }
+
+    private void beginMove() {
+        movedCount = 0;
+    }
+
+    private void remember(int lesson) {
+        movedLesson[movedCount] = lesson;
+        movedStart[movedCount] = lessonStart[lesson];
+        movedTeacher[movedCount] = lessonTeacher[lesson];
+        movedRoom[movedCount] = lessonRoom[lesson];
+        movedCount++;
+    }
+
+    // Puts the remembered lessons back; they must currently be released
+    private void restoreMoved() {
+        for (int i = 0; i < movedCount; i++) {
+            occupy(movedLesson[i], movedStart[i], movedTeacher[i], movedRoom[i]);
+        }
+        movedCount = 0;
+    }
+
+    private void undoMove() {
+        long before = affectedScore(touchedDayA, touchedDayB);
+        for (int i = 0; i < movedCount; i++) {
+            release(movedLesson[i]);
+        }
+        restoreMoved();
+        score += rescore(touchedDayA, touchedDayB) - before;
+    }
+
+    // ---- Incremental bookkeeping ----
+
+    private boolean allowed(int lesson, int start) {
+        return Arrays.binarySearch(lessonStarts[lesson], start) >= 0;
+    }
+
+    // Checks a released lesson against every hard rule at the given placement
+    private boolean fits(int lesson, int start, int teacher, int room) {
+        if (start < 0) {
+            return true;
+        }
+        if (subjectDayCount[lessonSubjectId[lesson] * days + start / periodsPerDay] > 0
+                || teacherDayLoad[teacher * days + start / periodsPerDay] + lessonLength[lesson] > teacherLimit[teacher]) {
+            return false;
+        }
+        for (int slot = start; slot < start + lessonLength[lesson]; slot++) {
+            if (slotLesson[slot] != -1
+                    || teacherUse[teacher * slotCount + slot] > 0
+                    || roomUse[room * slotCount + slot] > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void occupy(int lesson, int start, int teacher, int room) {
+        lessonStart[lesson] = start;
+        lessonTeacher[lesson] = teacher;
+        lessonRoom[lesson] = room;
+        if (start < 0) {
+            return;
+        }
+        for (int slot = start; slot < start + lessonLength[lesson]; slot++) {
+            slotLesson[slot] = lesson;
+            teacherUse[teacher * slotCount + slot]++;
+            roomUse[room * slotCount + slot]++;
+            if (scorer != null) {
+                score += scorer.add(scorerSection, slot, teacher, room, lessonSubjectId[lesson]);
+            }
+        }
+        subjectDayCount[lessonSubjectId[lesson] * days + start / periodsPerDay]++;
+        teacherDayLoad[teacher * days + start / periodsPerDay] += lessonLength[lesson];
+        dayLoad[start / periodsPerDay] += lessonLength[lesson];
+        placedPeriods += lessonLength[lesson];
+        score -= (long) UNPLACED_WEIGHT * lessonLength[lesson];
+    }
+
+    private void release(int lesson) {
+        int start = lessonStart[lesson];
+        if (start < 0) {
+            return;
+        }
+        int teacher = lessonTeacher[lesson];
+        int room = lessonRoom[lesson];
+        for (int slot = start; slot < start + lessonLength[lesson]; slot++) {
+            slotLesson[slot] = -1;
+            teacherUse[teacher * slotCount + slot]--;
+            roomUse[room * slotCount + slot]--;
+            if (scorer != null) {
+                score += scorer.remove(scorerSection, slot);
+            }
+        }
+        subjectDayCount[lessonSubjectId[lesson] * days + start / periodsPerDay]--;
+        teacherDayLoad[teacher * days + start / periodsPerDay] -= lessonLength[lesson];
+        dayLoad[start / periodsPerDay] -= lessonLength[lesson];
+        placedPeriods -= lessonLength[lesson];
+        score += (long) UNPLACED_WEIGHT * lessonLength[lesson];
+        lessonStart[lesson] = -1;
+    }
+
+    private long affectedScore(int firstDay, int secondDay) {
+        long total = 0;
+        if (firstDay >= 0) total += dayScore[firstDay];
+        if (secondDay >= 0 && secondDay != firstDay) total += dayScore[secondDay];
+        return total;
+    }
+
+    private long rescore(int firstDay, int secondDay) {
+        long total = 0;
+        if (firstDay >= 0) total += dayScore[firstDay] = scoreDay(firstDay);
+        if (secondDay >= 0 && secondDay != firstDay) total += dayScore[secondDay] = scoreDay(secondDay);
+        return total;
+    }
+
+    // Squared daily load (spreads lessons across the week) plus free periods between lessons
+    private int scoreDay(int day) {
+        int first = -1;
+        int last = -1;
+        int occupied = 0;
+        int start = day * periodsPerDay;
+        for (int period = 1; period <= periodsPerDay; period++) {
+            if (calendar.isBreak(period)) continue;
+            if (slotLesson[start + period - 1] != -1) {
+                if (first < 0) first = period;
+                last = period;
+                occupied++;
+            }
+        }
+        int gaps = 0;
+        if (first >= 0) {
+            gaps = calendar.countTeachingPeriods(first, last) - occupied;
+        }
+        return BALANCE_WEIGHT * dayLoad[day] * dayLoad[day] + GAP_WEIGHT * gaps;
+    }
+
+    private int dayOf(int start) {
+        return start < 0 ? -1 : start / periodsPerDay;
+    }
+
+    // ---- Loading and storing ----
+
+    private void load(Timetable timetable, int[] subjectIds) {
+        calendar = instance.getCalendar();
+        periodsPerDay = timetable.getPeriodsPerDay();
+        slotCount = timetable.getSlotCount();
+        days = slotCount / periodsPerDay;
+        int teacherCount = instance.getTeacherCount();
+        int roomCount = instance.getClassroomCount();
+
+        BitSet sectionSubjects = new BitSet();
+        for (int subject : subjectIds) {
+            sectionSubjects.set(subject);
+        }
+
+        // Existing lessons, joining consecutive periods of subjects taught in blocks; entries
+        // of other subjects, or with resources outside the instance, stay fixed
+        List<int[]> found = new ArrayList<>(); // start, length
+        slotLesson = new int[slotCount];
+        Arrays.fill(slotLesson, -1);
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (timetable.isSlotEmpty(slot)) continue;
+            int subject = timetable.getSubjectIdAt(slot);
+            int teacher = timetable.getTeacherIdAt(slot);
+            int room = timetable.getClassroomIdAt(slot);
+            if (!sectionSubjects.get(subject) || teacher >= teacherCount || room >= roomCount) {
+                slotLesson[slot] = -2;
+                continue;
+            }
+            int length = 1;
+            int dayEnd = (slot / periodsPerDay + 1) * periodsPerDay;
+            while (length < instance.getLessonLength(subject) && slot + length < dayEnd
+                    && !timetable.isSlotEmpty(slot + length)
+                    && timetable.getSubjectIdAt(slot + length) == subject
+                    && timetable.getTeacherIdAt(slot + length) == teacher
+                    && timetable.getClassroomIdAt(slot + length) == room) {
+                length++;
+            }
+            found.add(new int[]{slot, length});
+            slot += length - 1;
+        }
+
+        // Lessons still missing per subject start out unplaced
+        int[] placedLessons = new int[instance.getSubjectCount()];
+        for (int[] lesson : found) {
+            placedLessons[timetable.getSubjectIdAt(lesson[0])]++;
+        }
+        List<Integer> missing = new ArrayList<>();
+        for (int subject = sectionSubjects.nextSetBit(0); subject >= 0; subject = sectionSubjects.nextSetBit(subject + 1)) {
+            int count = instance.getRequiredLessons(subject) - placedLessons[subject];
+            for (int i = 0; i < count; i++) {
+                missing.add(subject);
+            }
+        }
+
+        lessonCount = found.size() + missing.size();
+        lessonSubjectId = new int[lessonCount];
+        lessonLength = new int[lessonCount];
+        lessonStart = new int[lessonCount];
+        lessonTeacher = new int[lessonCount];
+        lessonRoom = new int[lessonCount];
+        lessonStarts = new int[lessonCount][];
+        lessonTeachers = new int[lessonCount][];
+        lessonRooms = new int[lessonCount][];
+
+        int lesson = 0;
+        for (int[] placed : found) {
+            defineLesson(lesson++, timetable.getSubjectIdAt(placed[0]), placed[1], placed[0],
+                    timetable.getTeacherIdAt(placed[0]), timetable.getClassroomIdAt(placed[0]));
+        }
+        for (int subject : missing) {
+            defineLesson(lesson++, subject, instance.getLessonLength(subject), -1, -1, -1);
+        }
+
+        // Resource usage starts from the shared occupancy, so other sections are respected
+        ResourceOccupancy occupancy = timetable.getOccupancy();
+        teacherUse = new int[teacherCount * slotCount];
+        roomUse = new int[roomCount * slotCount];
+        teacherDayLoad = new int[teacherCount * days];
+        teacherLimit = new int[teacherCount];
+        for (int t = 0; t < teacherCount; t++) {
+            teacherLimit[t] = occupancy.getTeacherDailyLimit(t);
+            for (int day = 0; day < days; day++) {
+                teacherDayLoad[t * days + day] = occupancy.getTeacherDayLoad(t, day);
+            }
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            for (int t = 0; t < teacherCount; t++) {
+                if (!occupancy.isTeacherFree(t, slot)) teacherUse[t * slotCount + slot] = 1;
+            }
+            for (int r = 0; r < roomCount; r++) {
+                if (!occupancy.isClassroomFree(r, slot)) roomUse[r * slotCount + slot] = 1;
+            }
+        }
+
+        subjectDayCount = new int[instance.getSubjectCount() * days];
+        dayLoad = new int[days];
+        dayScore = new int[days];
+        score = 0;
+        placedPeriods = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotLesson[slot] == -2) {
+                dayLoad[slot / periodsPerDay]++;
+                placedPeriods++;
+            }
+        }
+        for (int i = 0; i < lessonCount; i++) {
+            score += (long) UNPLACED_WEIGHT * lessonLength[i];
+            if (lessonStart[i] >= 0) {
+                int start = lessonStart[i];
+                for (int slot = start; slot < start + lessonLength[i]; slot++) {
+                    slotLesson[slot] = i;
+                }
+                subjectDayCount[lessonSubjectId[i] * days + start / periodsPerDay]++;
+                dayLoad[start / periodsPerDay] += lessonLength[i];
+                placedPeriods += lessonLength[i];
+                score -= (long) UNPLACED_WEIGHT * lessonLength[i];
+            }
+        }
+        for (int day = 0; day < days; day++) {
+            dayScore[day] = scoreDay(day);
+            score += dayScore[day];
+        }
+        if (scorer != null) {
+            scorer.setSection(scorerSection, timetable);
+            score += scorer.getScore();
+        }
+    }
+
+    private void defineLesson(int lesson, int subject, int length, int start, int teacher, int room) {
+        lessonSubjectId[lesson] = subject;
+        lessonLength[lesson] = length;
+        // A leftover part of a block may go into any block of its own length
+        lessonStarts[lesson] = length == instance.getLessonLength(subject)
+                ? instance.getStartSlots(subject)
+                : instance.getBlocks(length);
+
+        // A placed lesson keeps its current teacher and room as candidates
+        int[] teachers = withCandidate(instance.getQualifiedTeachers(subject), teacher);
+        int[] rooms = withCandidate(instance.getSuitableRooms(subject), room);
+        lessonTeachers[lesson] = teachers;
+        lessonRooms[lesson] = rooms;
+
+        // Unplaced lessons without a candidate teacher or room can never be placed
+        if (start < 0 && (teachers.length == 0 || rooms.length == 0)) {
+            lessonStarts[lesson] = new int[0];
+        }
+        lessonStart[lesson] = start;
+        lessonTeacher[lesson] = teacher >= 0 ? teacher : teachers.length == 0 ? -1 : teachers[0];
+        lessonRoom[lesson] = room >= 0 ? room : rooms.length == 0 ? -1 : rooms[0];
+    }
+
+    private static int[] withCandidate(int[] candidates, int id) {
+        if (id < 0) {
+            return candidates;
+        }
+        for (int candidate : candidates) {
+            if (candidate == id) return candidates;
+        }
+        int[] extended = Arrays.copyOf(candidates, candidates.length + 1);
+        extended[candidates.length] = id;
+        return extended;
+    }
+
+    private void store(Timetable timetable, int[] bestStart, int[] bestTeacher, int[] bestRoom) {
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (slotLesson[slot] != -2) {
+                timetable.removeEntryAt(slot);
+            }
+        }
+        for (int lesson = 0; lesson < lessonCount; lesson++) {
+            int start = bestStart[lesson];
+            if (start < 0) continue;
+            for (int slot = start; slot < start + lessonLength[lesson]; slot++) {
+                timetable.addEntry(slot, bestTeacher[lesson], bestRoom[lesson], lessonSubjectId[lesson]);
+            }
+        }
+    }
+}
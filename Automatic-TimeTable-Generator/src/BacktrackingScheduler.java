@@ -0,0 +1,576 @@
+import java.util.*;
+
+// Constraint-propagating backtracking engine for one class group.
+//
+// Each lesson (a double-period block, a single period or an English/Git period)
+// is a variable whose domain holds every (start slot, teacher, room) triple that
+// is free in the shared occupancy. Search uses forward checking, MRV with a
+// degree tie-break, and conflict-directed backjumping (FC-CBJ). Teachers' daily
+// limits are kept as per-day load counters and propagated like slot clashes.
+class BacktrackingScheduler {
+
+    private static final int SOLVED = Integer.MAX_VALUE;
+    private static final int ABORTED = -2;
+
+    private final TimetableGenerator rules;
+    private final Random random;
+    private ProblemInstance instance;
+    private long nodeLimit = 200_000;
+    private SolveControl control = SolveControl.unlimited();
+
+    // Search state for the current run
+    private Lesson[] lessons;
+    private Trail[] trail;
+    private BitSet[] handOff;
+    private int[] bestValues;
+    private int bestDepth;
+    private int placedBefore;
+    private long nodes;
+
+    // Teacher load per (teacher * days + day), the week totals, and which levels
+    // contributed to each day's load (for conflict sets of load prunes)
+    private int days;
+    private int[] dailyLimit;
+    private boolean[] limited;
+    private int[] dayLoad;
+    private int[] weekLoad;
+    private BitSet[] loadLevels;
+
+    public BacktrackingScheduler(TimetableGenerator rules, Random random) {
+        this.rules = rules;
+        this.random = random;
+    }
+
+    public void setNodeLimit(long nodeLimit) {
+        this.nodeLimit = nodeLimit;
+    }
+
+    // Search nodes visited by the last schedule() call
+    public long getNodes() {
+        return nodes;
+    }
+
+    public void setControl(SolveControl control) {
+        this.control = control;
+    }
+
+    // Schedules the subjects into the timetable and returns true if every lesson was placed;
+    // the timetable must share IDs with the instance
+    public boolean schedule(Timetable timetable, ProblemInstance instance, int[] subjectIds) {
+        this.instance = instance;
+        initLoads(timetable.getOccupancy());
+        List<Lesson> created = createLessons(timetable, subjectIds);
+        lessons = created.toArray(new Lesson[0]);
+        connectNeighbours();
+
+        trail = new Trail[lessons.length];
+        handOff = new BitSet[lessons.length];
+        for (int level = 0; level < lessons.length; level++) {
+            trail[level] = new Trail();
+            handOff[level] = new BitSet();
+        }
+        bestValues = new int[lessons.length];
+        Arrays.fill(bestValues, -1);
+        bestDepth = 0;
+        placedBefore = timetable.getEntryCount();
+        nodes = 0;
+
+        int result = lessons.length == 0 ? SOLVED : search(0);
+        if (result == SOLVED) {
+            for (int i = 0; i < lessons.length; i++) {
+                bestValues[i] = lessons[i].value;
+            }
+        }
+        apply(timetable);
+
+        BitSet reported = new BitSet();
+        int unplaced = countRequiredLessons(subjectIds) - created.size();
+        for (int i = 0; i < lessons.length; i++) {
+            if (bestValues[i] < 0) {
+                unplaced++;
+                if (!reported.get(lessons[i].subject)) {
+                    reported.set(lessons[i].subject);
+                    if (rules.isReportUnscheduled()) {
+                        System.out.println("Could not schedule all periods for: "
+                                + instance.getSubject(lessons[i].subject).getName());
+                    }
+                }
+            }
+        }
+        rules.recordUnscheduled(reported.cardinality(), unplaced);
+        return unplaced == 0;
+    }
+
+    private int search(int depth) {
+        if (++nodes > nodeLimit || ((nodes & 255) == 0 && control.isStopped())) {
+            return ABORTED;
+        }
+        int var = selectLesson();
+        if (var < 0) {
+            return SOLVED;
+        }
+
+        Lesson lesson = lessons[var];
+        handOff[depth].clear();
+        BitSet conflicts = new BitSet();
+
+        for (int start : lesson.startOrder) {
+            for (int value : candidateValues(lesson, start)) {
+                assign(lesson, value, depth);
+                int wipedOut = forwardCheck(lesson, depth);
+                if (wipedOut >= 0) {
+                    conflicts.or(lessons[wipedOut].prunedBy);
+                    conflicts.clear(depth);
+                    undo(depth);
+                    unassign(lesson, depth);
+                    continue;
+                }
+
+                recordBest(depth + 1);
+                int result = search(depth + 1);
+                if (result == SOLVED || result == ABORTED) {
+                    return result;
+                }
+                undo(depth);
+                unassign(lesson, depth);
+                if (result < depth) {
+                    return result;
+                }
+                conflicts.or(handOff[depth]);
+                handOff[depth].clear();
+            }
+        }
+
+        // Domain exhausted: jump back to the most recent level that caused a conflict
+        conflicts.or(lesson.prunedBy);
+        conflicts.clear(depth);
+        int target = conflicts.length() - 1;
+        if (target >= 0) {
+            conflicts.clear(target);
+            handOff[target].or(conflicts);
+        }
+        return target;
+    }
+
+    // Minimum remaining values, ties broken by the number of unassigned neighbours
+    private int selectLesson() {
+        int best = -1;
+        int bestSize = Integer.MAX_VALUE;
+        int bestDegree = -1;
+        for (int i = 0; i < lessons.length; i++) {
+            Lesson lesson = lessons[i];
+            if (lesson.value >= 0) {
+                continue;
+            }
+            int size = lesson.viableStarts();
+            if (size > bestSize) {
+                continue;
+            }
+            int degree = 0;
+            for (int neighbour : lesson.neighbours) {
+                if (lessons[neighbour].value < 0) {
+                    degree++;
+                }
+            }
+            if (size < bestSize || degree > bestDegree) {
+                best = i;
+                bestSize = size;
+                bestDegree = degree;
+            }
+        }
+        return best;
+    }
+
+    // Values to try at one start. Values that share a start differ only in teacher and
+    // room; rooms are interchangeable within a section, and so are teachers unless a
+    // daily limit or load balancing tells them apart. One value per teacher is enough then.
+    private int[] candidateValues(Lesson lesson, int start) {
+        int from = start * lesson.valuesPerStart;
+        int to = from + lesson.valuesPerStart;
+        int first = lesson.domain.nextSetBit(from);
+        if (first < 0 || first >= to) {
+            return new int[0];
+        }
+        boolean balance = rules.isBalanceTeacherLoad();
+        if (!lesson.limitedTeachers && !balance) {
+            return new int[]{first};
+        }
+
+        int count = 0;
+        int[] values = new int[lesson.teachers.length];
+        int rooms = lesson.rooms.length;
+        for (int value = first; value >= 0 && value < to; value = lesson.domain.nextSetBit((value / rooms + 1) * rooms)) {
+            values[count++] = value;
+        }
+        values = Arrays.copyOf(values, count);
+        if (balance) {
+            // Least loaded teacher first (insertion sort keeps equal loads in order)
+            for (int i = 1; i < count; i++) {
+                int value = values[i];
+                int load = weekLoad[lesson.teacher(value)];
+                int j = i - 1;
+                while (j >= 0 && weekLoad[lesson.teacher(values[j])] > load) {
+                    values[j + 1] = values[j];
+                    j--;
+                }
+                values[j + 1] = value;
+            }
+        }
+        return lesson.limitedTeachers ? values : new int[]{values[0]};
+    }
+
+    private void assign(Lesson lesson, int value, int depth) {
+        lesson.value = value;
+        int teacher = lesson.teacher(value);
+        int index = teacher * days + lesson.startSlot(value) / rules.getPeriodsPerDay();
+        dayLoad[index] += lesson.length;
+        weekLoad[teacher] += lesson.length;
+        loadLevels[index].set(depth);
+    }
+
+    private void unassign(Lesson lesson, int depth) {
+        int teacher = lesson.teacher(lesson.value);
+        int index = teacher * days + lesson.startSlot(lesson.value) / rules.getPeriodsPerDay();
+        dayLoad[index] -= lesson.length;
+        weekLoad[teacher] -= lesson.length;
+        loadLevels[index].clear(depth);
+        lesson.value = -1;
+    }
+
+    // Prunes values that clash with the new assignment; returns a wiped-out lesson or -1
+    private int forwardCheck(Lesson assigned, int depth) {
+        int slot = assigned.startSlot(assigned.value);
+        int day = slot / rules.getPeriodsPerDay();
+        Trail levelTrail = trail[depth];
+        int teacher = assigned.teacher(assigned.value);
+
+        for (int neighbour : assigned.neighbours) {
+            Lesson other = lessons[neighbour];
+            if (other.value >= 0) {
+                continue;
+            }
+            boolean sameSubject = other.subject == assigned.subject;
+            for (int start = 0; start < other.starts.length; start++) {
+                int otherSlot = other.starts[start];
+                boolean clash = otherSlot < slot + assigned.length && slot < otherSlot + other.length;
+                if (!clash && sameSubject) {
+                    // Identical lessons are ordered by day, which also enforces one per day
+                    int otherDay = otherSlot / rules.getPeriodsPerDay();
+                    clash = other.order > assigned.order ? otherDay <= day : otherDay >= day;
+                }
+                if (clash) {
+                    levelTrail.prune(other, start, depth);
+                } else if (limited[teacher] && otherSlot / rules.getPeriodsPerDay() == day) {
+                    pruneOverLimit(other, start, teacher, day, depth);
+                }
+            }
+            if (other.domain.isEmpty()) {
+                return neighbour;
+            }
+        }
+        return -1;
+    }
+
+    // Removes the teacher's values at this start if the lesson would exceed their daily limit.
+    // Every level that added to that day's load is recorded as a cause, which keeps the
+    // conflict sets sound; bits from earlier levels may outlive them, which is only conservative.
+    private void pruneOverLimit(Lesson other, int start, int teacher, int day, int depth) {
+        int index = teacher * days + day;
+        if (dayLoad[index] + other.length <= dailyLimit[teacher]) {
+            return;
+        }
+        int candidate = other.teacherIndex(teacher);
+        if (candidate < 0) {
+            return;
+        }
+        int from = (start * other.teachers.length + candidate) * other.rooms.length;
+        if (trail[depth].prune(other, from, from + other.rooms.length, depth)) {
+            other.prunedBy.or(loadLevels[index]);
+        }
+    }
+
+    private void initLoads(ResourceOccupancy occupancy) {
+        int teacherCount = instance.getTeacherCount();
+        int periodsPerDay = rules.getPeriodsPerDay();
+        days = instance.getDays();
+        dailyLimit = new int[teacherCount];
+        limited = new boolean[teacherCount];
+        dayLoad = new int[teacherCount * days];
+        weekLoad = new int[teacherCount];
+        loadLevels = new BitSet[teacherCount * days];
+        for (int teacher = 0; teacher < teacherCount; teacher++) {
+            dailyLimit[teacher] = occupancy.getTeacherDailyLimit(teacher);
+            weekLoad[teacher] = occupancy.getTeacherWeekLoad(teacher);
+            for (int day = 0; day < days; day++) {
+                int index = teacher * days + day;
+                dayLoad[index] = occupancy.getTeacherDayLoad(teacher, day);
+                loadLevels[index] = new BitSet();
+                // A limit this section cannot reach on any day never needs propagating
+                if (dayLoad[index] + periodsPerDay > dailyLimit[teacher]) {
+                    limited[teacher] = true;
+                }
+            }
+        }
+    }
+
+    private void undo(int depth) {
+        trail[depth].restore(depth);
+    }
+
+    private void recordBest(int depth) {
+        if (depth > bestDepth) {
+            bestDepth = depth;
+            int periods = placedBefore;
+            for (int i = 0; i < lessons.length; i++) {
+                bestValues[i] = lessons[i].value;
+                if (bestValues[i] >= 0) {
+                    periods += lessons[i].length;
+                }
+            }
+            control.reportPlacedPeriods(periods);
+        }
+    }
+
+    private void apply(Timetable timetable) {
+        for (int i = 0; i < lessons.length; i++) {
+            int value = bestValues[i];
+            if (value < 0) {
+                continue;
+            }
+            Lesson lesson = lessons[i];
+            int slot = lesson.startSlot(value);
+            int teacher = lesson.teacher(value);
+            int room = lesson.room(value);
+            for (int offset = 0; offset < lesson.length; offset++) {
+                timetable.addEntry(slot + offset, teacher, room, lesson.subject);
+            }
+        }
+    }
+
+    private List<Lesson> createLessons(Timetable timetable, int[] subjectIds) {
+        List<Lesson> created = new ArrayList<>();
+        int periodsPerDay = rules.getPeriodsPerDay();
+
+        for (int subject : subjectIds) {
+            int length = instance.getLessonLength(subject);
+
+            // Days that already hold the subject are closed to it
+            int[] starts = Arrays.stream(instance.getStartSlots(subject))
+                    .filter(slot -> !timetable.isSubjectScheduledOnDay(subject, slot / periodsPerDay))
+                    .toArray();
+
+            int count = instance.getRequiredLessons(subject);
+            for (int order = 0; order < count; order++) {
+                Lesson lesson = new Lesson(subject, order, length, starts,
+                        instance.getQualifiedTeachers(subject), instance.getSuitableRooms(subject));
+                lesson.initDomain(timetable);
+                created.add(lesson);
+            }
+        }
+
+        // A subject cannot have more lessons than days on which it has a free value
+        Map<Integer, Integer> viableDays = new HashMap<>();
+        for (Lesson lesson : created) {
+            viableDays.computeIfAbsent(lesson.subject, s -> lesson.viableDays(periodsPerDay));
+        }
+        List<Lesson> kept = new ArrayList<>();
+        for (Lesson lesson : created) {
+            if (lesson.order < viableDays.get(lesson.subject)) {
+                kept.add(lesson);
+            }
+        }
+        return kept;
+    }
+
+    private int countRequiredLessons(int[] subjectIds) {
+        int total = 0;
+        for (int subject : subjectIds) {
+            total += instance.getRequiredLessons(subject);
+        }
+        return total;
+    }
+
+    private void connectNeighbours() {
+        BitSet[] coverage = new BitSet[lessons.length];
+        for (int i = 0; i < lessons.length; i++) {
+            coverage[i] = new BitSet();
+            for (int start : lessons[i].starts) {
+                coverage[i].set(start, start + lessons[i].length);
+            }
+        }
+        // Lessons that could load the same limited teacher also constrain each other
+        BitSet[] limitedTeachers = new BitSet[lessons.length];
+        for (int i = 0; i < lessons.length; i++) {
+            limitedTeachers[i] = new BitSet();
+            for (int teacher : lessons[i].teachers) {
+                if (limited[teacher]) {
+                    limitedTeachers[i].set(teacher);
+                }
+            }
+        }
+        for (int i = 0; i < lessons.length; i++) {
+            List<Integer> neighbours = new ArrayList<>();
+            for (int j = 0; j < lessons.length; j++) {
+                if (i != j && (lessons[i].subject == lessons[j].subject || coverage[i].intersects(coverage[j])
+                        || limitedTeachers[i].intersects(limitedTeachers[j]))) {
+                    neighbours.add(j);
+                }
+            }
+            lessons[i].neighbours = neighbours.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    // One variable of the CSP; value = (startIndex * teachers + teacher) * rooms + room,
+    // where teacher and room index the lesson's candidate ID arrays
+    private final class Lesson {
+
+        final int subject;
+        final int order;
+        final int length;
+        final int[] starts;
+        final int[] startOrder;
+        final int[] teachers;
+        final int[] rooms;
+        final int valuesPerStart;
+        final boolean limitedTeachers;
+        final BitSet domain = new BitSet();
+        final BitSet prunedBy = new BitSet();
+        int[] neighbours;
+        int value = -1;
+
+        Lesson(int subject, int order, int length, int[] starts, int[] teachers, int[] rooms) {
+            this.subject = subject;
+            this.order = order;
+            this.length = length;
+            this.starts = starts;
+            this.teachers = teachers;
+            this.rooms = rooms;
+            this.valuesPerStart = teachers.length * rooms.length;
+            this.limitedTeachers = Arrays.stream(teachers).anyMatch(teacher -> limited[teacher]);
+
+            List<Integer> shuffled = new ArrayList<>();
+            for (int i = 0; i < this.starts.length; i++) {
+                shuffled.add(i);
+            }
+            Collections.shuffle(shuffled, random);
+            this.startOrder = shuffled.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        void initDomain(Timetable timetable) {
+            ResourceOccupancy occupancy = timetable.getOccupancy();
+            for (int start = 0; start < starts.length; start++) {
+                if (!slotsEmpty(timetable, starts[start])) {
+                    continue;
+                }
+                for (int t = 0; t < teachers.length; t++) {
+                    for (int r = 0; r < rooms.length; r++) {
+                        boolean free = true;
+                        for (int offset = 0; offset < length && free; offset++) {
+                            int slot = starts[start] + offset;
+                            free = occupancy.isTeacherFree(teachers[t], slot)
+                                    && occupancy.isClassroomFree(rooms[r], slot);
+                        }
+                        free = free && occupancy.hasTeacherCapacity(teachers[t], starts[start], length);
+                        if (free) {
+                            domain.set((start * teachers.length + t) * rooms.length + r);
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean slotsEmpty(Timetable timetable, int slot) {
+            for (int offset = 0; offset < length; offset++) {
+                if (!timetable.isSlotEmpty(slot + offset)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int viableStarts() {
+            int count = 0;
+            for (int start = 0; start < starts.length; start++) {
+                int from = start * valuesPerStart;
+                int next = domain.nextSetBit(from);
+                if (next >= 0 && next < from + valuesPerStart) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        int viableDays(int periodsPerDay) {
+            BitSet days = new BitSet();
+            for (int start = 0; start < starts.length; start++) {
+                int from = start * valuesPerStart;
+                int next = domain.nextSetBit(from);
+                if (next >= 0 && next < from + valuesPerStart) {
+                    days.set(starts[start] / periodsPerDay);
+                }
+            }
+            return days.cardinality();
+        }
+
+        int startSlot(int value) {
+            return starts[value / valuesPerStart];
+        }
+
+        int teacherIndex(int teacher) {
+            for (int t = 0; t < teachers.length; t++) {
+                if (teachers[t] == teacher) return t;
+            }
+            return -1;
+        }
+
+        int teacher(int value) {
+            return teachers[value % valuesPerStart / rooms.length];
+        }
+
+        int room(int value) {
+            return rooms[value % rooms.length];
+        }
+    }
+
+    // Values pruned at one search level, so they can be restored on backtrack
+    private static final class Trail {
+
+        private final List<Lesson> lessons = new ArrayList<>();
+        private final List<Integer> offsets = new ArrayList<>();
+        private final List<BitSet> removed = new ArrayList<>();
+
+        void prune(Lesson lesson, int start, int level) {
+            int from = start * lesson.valuesPerStart;
+            prune(lesson, from, from + lesson.valuesPerStart, level);
+        }
+
+        // Removes the values in [from, to); false if none of them were left
+        boolean prune(Lesson lesson, int from, int to, int level) {
+            int next = lesson.domain.nextSetBit(from);
+            if (next < 0 || next >= to) {
+                return false;
+            }
+            lessons.add(lesson);
+            offsets.add(from);
+            removed.add(lesson.domain.get(from, to));
+            lesson.domain.clear(from, to);
+            lesson.prunedBy.set(level);
+            return true;
+        }
+
+        void restore(int level) {
+            for (int i = lessons.size() - 1; i >= 0; i--) {
+                Lesson lesson = lessons.get(i);
+                BitSet bits = removed.get(i);
+                int from = offsets.get(i);
+                for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                    lesson.domain.set(from + bit);
+                }
+                lesson.prunedBy.clear(level);
+            }
+            lessons.clear();
+            offsets.clear();
+            removed.clear();
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Timetable generation jobs for the web API.
+//
+// Jobs run on a fixed pool of worker threads with a bounded queue, so any
+// number of users can ask for timetables while at most `workers` solvers run
+// at once; a full queue rejects new jobs instead of piling them up. Finished
+// jobs are kept for polling until `retainedJobs` newer ones have been submitted.
+class GenerationJobs {
+
+    enum Status { QUEUED, RUNNING, DONE, CANCELLED, FAILED }
+
+    private final ThreadPoolExecutor pool;
+    private final int retainedJobs;
+    private final Map<String, Job> jobs = new LinkedHashMap<>();
+
+    public GenerationJobs(int workers, int queueCapacity, int retainedJobs) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "generation-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.retainedJobs = retainedJobs;
+    }
+
+    // Queues a job; throws RejectedExecutionException when the queue is full
+    public Job submit(Request request) {
+        Job job = new Job(UUID.randomUUID().toString(), request);
+        synchronized (this) {
+            job.future = pool.submit(job::run);
+            jobs.put(job.id, job);
+            evictFinished();
+        }
+        return job;
+    }
+
+    public synchronized Job get(String id) {
+        return jobs.get(id);
+    }
+
+    // Stops a queued or running job; a running solver returns what it has placed
+    public boolean cancel(String id) {
+        Job job = get(id);
+        if (job == null) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    public int getQueuedJobs() {
+        return pool.getQueue().size();
+    }
+
+    public int getRunningJobs() {
+        return pool.getActiveCount();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private void evictFinished() {
+        Iterator<Job> it = jobs.values().iterator();
+        while (jobs.size() > retainedJobs && it.hasNext()) {
+            if (it.next().isFinished()) {
+                it.remove();
+            }
+        }
+    }
+
+    // Everything one generation needs, copied from the shared lists when queued
+    static final class Request {
+
+        final List<Teacher> teachers;
+        final List<Subject> subjects;
+        final List<Classroom> classrooms;
+        final List<ClassGroup> sections;
+        final SchoolCalendar calendar;
+        final SolverEngine engine;
+        final long seed;
+        final long improvementMoves;
+        final boolean balanceTeacherLoad;
+        final boolean softConstraints;
+        final long budgetMillis;
+
+        Request(List<Teacher> teachers, List<Subject> subjects, List<Classroom> classrooms,
+                List<ClassGroup> sections, SchoolCalendar calendar, SolverEngine engine, long seed,
+                long improvementMoves, boolean balanceTeacherLoad, boolean softConstraints, long budgetMillis) {
+            this.teachers = new ArrayList<>(teachers);
+            this.subjects = new ArrayList<>(subjects);
+            this.classrooms = new ArrayList<>(classrooms);
+            this.sections = new ArrayList<>(sections);
+            this.calendar = calendar;
+            this.engine = engine;
+            this.seed = seed;
+            this.improvementMoves = improvementMoves;
+            this.balanceTeacherLoad = balanceTeacherLoad;
+            this.softConstraints = softConstraints;
+            this.budgetMillis = budgetMillis;
+        }
+
+        // Options from a POST /api/generate body; sections name their subjects:
+        //   {"engine": "backtracking", "seed": 7, "improve": 0, "balance": false, "soft": false,
+        //    "budgetMs": 5000, "periods": 9, "days": 6, "breaks": [4, 7],
+        //    "blocks": "2: 1, 2, 5, 8; 3: 1, 5", "lessons": "Chemistry: 3",
+        //    "sections": [{"name": "12A", "subjects": ["Physics", "English"]}]}
+        // The calendar fields take the values SchoolCalendar.fromSettings reads.
+        static Request fromJson(Map<String, Object> body, List<Teacher> teachers,
+                                List<Subject> subjects, List<Classroom> classrooms) {
+            if (teachers.isEmpty() || subjects.isEmpty() || classrooms.isEmpty()) {
+                throw new IllegalArgumentException("Add teachers, subjects and classrooms before generating");
+            }
+            SolverEngine engine = SolverEngine.GREEDY;
+            if (body.get("engine") != null) {
+                String name = Json.string(body, "engine");
+                engine = Arrays.stream(SolverEngine.values())
+                        .filter(e -> e.name().equalsIgnoreCase(name))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException("Unknown engine '" + name + "'"));
+            }
+            int periodsPerDay = (int) Json.number(body, "periods", 9);
+            if (periodsPerDay < 1 || periodsPerDay > 16) {
+                throw new IllegalArgumentException("'periods' must be between 1 and 16");
+            }
+            SchoolCalendar calendar = SchoolCalendar.fromSettings(key -> setting(body, key));
+            long budget = Json.number(body, "budgetMs", 0);
+            long improve = Json.number(body, "improve", 0);
+            if (budget < 0 || improve < 0) {
+                throw new IllegalArgumentException("'budgetMs' and 'improve' cannot be negative");
+            }
+
+            List<ClassGroup> sections = new ArrayList<>();
+            for (Map<String, Object> section : Json.objects(body, "sections")) {
+                List<Subject> taken = new ArrayList<>();
+                for (String name : Json.strings(section, "subjects")) {
+                    taken.add(subjects.stream()
+                            .filter(s -> s.getName().equals(name))
+                            .findFirst()
+                            .orElseThrow(() -> new IllegalArgumentException("Unknown subject '" + name + "'")));
+                }
+                sections.add(new ClassGroup(Json.string(section, "name"), taken));
+            }
+
+            return new Request(teachers, subjects, classrooms, sections, calendar, engine,
+                    Json.number(body, "seed", new Random().nextLong()), improve,
+                    Json.bool(body, "balance", false), Json.bool(body, "soft", false), budget);
+        }
+
+        // A calendar field as setting text: numbers as digits, arrays joined by commas
+        private static String setting(Map<String, Object> body, String key) {
+            Object value = body.get(key);
+            if (value instanceof Number) {
+                return String.valueOf(((Number) value).longValue());
+            }
+            if (value instanceof List) {
+                StringJoiner joined = new StringJoiner(", ");
+                for (Object item : (List<?>) value) {
+                    joined.add(item instanceof Number ? String.valueOf(((Number) item).longValue()) : String.valueOf(item));
+                }
+                return joined.toString();
+            }
+            return value == null ? null : value.toString();
+        }
+    }
+
+    static final class Job {
+
+        final String id;
+        final Request request;
+        final long submittedAt = System.currentTimeMillis();
+        private final SolveControl control;
+        private volatile Future<?> future;
+        private volatile Status status = Status.QUEUED;
+        private volatile boolean cancelled;
+        private volatile long startedAt;
+        private volatile long finishedAt;
+        private volatile int requiredPeriods;
+        private volatile Map<String, Timetable> result;
+        private volatile int missingPeriods;
+        private volatile String error;
+
+        Job(String id, Request request) {
+            this.id = id;
+            this.request = request;
+            this.control = SolveControl.unlimited();
+        }
+
+        private void run() {
+            synchronized (this) {
+                if (cancelled) {
+                    status = Status.CANCELLED;
+                    finishedAt = System.currentTimeMillis();
+                    return;
+                }
+                startedAt = System.currentTimeMillis();
+                status = Status.RUNNING;
+            }
+            try {
+                TimetableGenerator generator = new TimetableGenerator(request.calendar, request.engine);
+                generator.setSeed(request.seed);
+                generator.setImprovementMoves(request.improvementMoves);
+                generator.setBalanceTeacherLoad(request.balanceTeacherLoad);
+                if (request.softConstraints) {
+                    generator.setScorer(TimetableScorer::standard);
+                }
+                generator.setReportUnscheduled(false);
+                // The budget counts from when the job starts, not from when it was queued
+                generator.setControl(request.budgetMillis > 0 ? control.child(request.budgetMillis) : control);
+
+                Map<String, Timetable> timetables = new LinkedHashMap<>();
+                int missing = 0;
+                if (request.sections.isEmpty()) {
+                    requiredPeriods = generator.countRequiredPeriods(request.subjects);
+                    Timetable timetable = generator.generateTimetable(
+                            request.teachers, request.subjects, request.classrooms);
+                    timetables.put("Class", timetable);
+                    missing = generator.countMissingPeriods(timetable, request.subjects);
+                } else {
+                    int required = 0;
+                    for (ClassGroup section : request.sections) {
+                        required += generator.countRequiredPeriods(section.getSubjects());
+                    }
+                    requiredPeriods = required;
+                    SchoolTimetable school = generator.generateTimetables(
+                            request.sections, request.teachers, request.classrooms);
+                    for (ClassGroup section : school.getGroups()) {
+                        Timetable timetable = school.getTimetable(section);
+                        timetables.put(section.getName(), timetable);
+                        missing += generator.countMissingPeriods(timetable, section.getSubjects());
+                    }
+                }
+                missingPeriods = missing;
+                result = timetables;
+                status = cancelled ? Status.CANCELLED : Status.DONE;
+            } catch (RuntimeException e) {
+                error = e.getMessage() != null ? e.getMessage() : e.toString();
+                status = Status.FAILED;
+            } finally {
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+
+        // A queued job is finished at once; a running one keeps RUNNING until
+        // run() has stored what the solver placed
+        private synchronized void cancel() {
+            cancelled = true;
+            control.cancel();
+            if (status == Status.QUEUED) {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                status = Status.CANCELLED;
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        // Timetables by section name once the job has finished, otherwise null
+        public Map<String, Timetable> getResult() {
+            return result;
+        }
+
+        public boolean isFinished() {
+            Status current = status;
+            return current == Status.DONE || current == Status.CANCELLED || current == Status.FAILED;
+        }
+
+        // Status, progress and, once finished, the timetables as JSON-ready maps
+        public Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("id", id);
+            json.put("status", status.name().toLowerCase());
+            json.put("engine", request.engine.name().toLowerCase());
+            json.put("seed", request.seed);
+            json.put("submittedAt", submittedAt);
+            if (startedAt > 0) {
+                json.put("startedAt", startedAt);
+            }
+            if (finishedAt > 0) {
+                json.put("finishedAt", finishedAt);
+            }
+            json.put("requiredPeriods", requiredPeriods);
+            json.put("placedPeriods", result != null ? requiredPeriods - missingPeriods : control.getPlacedPeriods());
+            if (error != null) {
+                json.put("error", error);
+            }
+            Map<String, Timetable> timetables = result;
+            if (timetables != null) {
+                json.put("missingPeriods", missingPeriods);
+                List<Object> sections = new ArrayList<>();
+                for (Map.Entry<String, Timetable> section : timetables.entrySet()) {
+                    Map<String, Object> sectionJson = new LinkedHashMap<>();
+                    sectionJson.put("name", section.getKey());
+                    sectionJson.put("entries", entries(section.getValue()));
+                    sections.add(sectionJson);
+                }
+                json.put("sections", sections);
+            }
+            return json;
+        }
+
+        private static List<Object> entries(Timetable timetable) {
+            List<Object> entries = new ArrayList<>();
+            for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+                TimetableEntry entry = timetable.getEntryAt(slot);
+                if (entry == null) continue;
+                Map<String, Object> json = new LinkedHashMap<>();
+                json.put("day", entry.getTimeslot().getDay().name());
+                json.put("period", entry.getTimeslot().getPeriod());
+                json.put("subject", entry.getSubject().getName());
+                json.put("teacher", entry.getTeacher().getName());
+                json.put("classroom", entry.getClassroom().getClassRoom());
+                entries.add(json);
+            }
+            return entries;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide counters and histograms, written out in Prometheus text format.
+//
+// Updates are LongAdder increments, so hot paths can record without locks;
+// callers keep the Counter/Histogram they get back instead of looking it up
+// each time. Labels are given as name/value pairs: counter("x", "help", "engine", "greedy").
+final class Metrics {
+
+    // Latency buckets in seconds, from 100 microseconds to 30 seconds
+    static final double[] LATENCY_BUCKETS = {
+            0.0001, 0.0005, 0.001, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+    };
+
+    private static final Metrics SHARED = new Metrics();
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").children
+                .computeIfAbsent(labelText(labels), key -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, double[] buckets, String... labels) {
+        return (Histogram) family(name, help, "histogram").children
+                .computeIfAbsent(labelText(labels), key -> new Histogram(buckets));
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    // Prometheus text exposition format, families and label sets in sorted order
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (String name : new TreeSet<>(families.keySet())) {
+            Family family = families.get(name);
+            sb.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (String labels : new TreeSet<>(family.children.keySet())) {
+                Object metric = family.children.get(labels);
+                if (metric instanceof Counter) {
+                    sample(sb, name, labels, null, ((Counter) metric).get());
+                } else {
+                    ((Histogram) metric).write(sb, name, labels);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, String extraLabel, Object value) {
+        sb.append(name);
+        if (!labels.isEmpty() || extraLabel != null) {
+            sb.append('{').append(labels);
+            if (extraLabel != null) {
+                if (!labels.isEmpty()) sb.append(',');
+                sb.append(extraLabel);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String labelText(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.toString();
+    }
+
+    private static final class Family {
+
+        final String help;
+        final String type;
+        final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    static final class Counter {
+
+        private final LongAdder value = new LongAdder();
+
+        public void inc() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            if (amount != 0) {
+                value.add(amount);
+            }
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    static final class Histogram {
+
+        private final double[] bounds;
+        private final String[] boundLabels;
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+        private final LongAdder count = new LongAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds.clone();
+            // Plain decimals ("0.0001", "1") rather than Double.toString's "1.0E-4"
+            this.boundLabels = new String[bounds.length];
+            for (int i = 0; i < bounds.length; i++) {
+                boundLabels[i] = "le=\"" + BigDecimal.valueOf(bounds[i]).stripTrailingZeros().toPlainString() + "\"";
+            }
+            this.buckets = new LongAdder[bounds.length];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void observe(double value) {
+            // Per-bucket counts; write() turns them into cumulative "le" buckets
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) {
+                i++;
+            }
+            if (i < bounds.length) {
+                buckets[i].increment();
+            }
+            sum.add(value);
+            count.increment();
+        }
+
+        public void observeNanos(long nanos) {
+            observe(nanos / 1e9);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getSum() {
+            return sum.sum();
+        }
+
+        private void write(StringBuilder sb, String name, String labels) {
+            long cumulative = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                cumulative += buckets[i].sum();
+                sample(sb, name + "_bucket", labels, boundLabels[i], cumulative);
+            }
+            long total = count.sum();
+            sample(sb, name + "_bucket", labels, "le=\"+Inf\"", total);
+            sample(sb, name + "_sum", labels, null, sum.sum());
+            sample(sb, name + "_count", labels, null, total);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+// Runs many independently seeded generator runs in parallel and keeps the best.
+// Runs alternate between the greedy and backtracking engines, each with its own
+// time budget; the first complete timetable cancels every other run.
+class PortfolioSolver {
+
+    private final SchoolCalendar calendar;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int runs = parallelism * 4;
+    private long runBudgetMillis = 2_000;
+    private long seed = System.nanoTime();
+    private SolveControl control = SolveControl.unlimited();
+    private boolean balanceTeacherLoad;
+    private long improvementMoves;
+
+    public PortfolioSolver(int periodsPerDay) {
+        this(SchoolCalendar.standard(periodsPerDay));
+    }
+
+    public PortfolioSolver(SchoolCalendar calendar) {
+        this.calendar = calendar;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public void setRuns(int runs) {
+        this.runs = runs;
+    }
+
+    public void setRunBudgetMillis(long runBudgetMillis) {
+        this.runBudgetMillis = runBudgetMillis;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setBalanceTeacherLoad(boolean balanceTeacherLoad) {
+        this.balanceTeacherLoad = balanceTeacherLoad;
+    }
+
+    // Annealing moves each run makes after construction, within its budget
+    public void setImprovementMoves(long improvementMoves) {
+        this.improvementMoves = improvementMoves;
+    }
+
+    public void setControl(SolveControl control) {
+        this.control = control;
+    }
+
+    public Result solve(List<Teacher> teachers, List<Subject> subjects, List<Classroom> classrooms) {
+        SolveControl portfolio = control.child();
+        // Compiled once; the instance is immutable, so all runs share it
+        ProblemInstance instance = ProblemInstance.compile(new TimetableGenerator(calendar),
+                teachers, subjects, classrooms);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (int run = 0; run < runs; run++) {
+                SolverEngine engine = run % 2 == 0 ? SolverEngine.GREEDY : SolverEngine.BACKTRACKING;
+                long runSeed = seed + run;
+                futures.add(pool.submit(() -> runOnce(engine, runSeed, portfolio, instance, subjects)));
+            }
+
+            Result best = null;
+            for (Future<Result> future : futures) {
+                Result result = get(future);
+                if (result != null && (best == null || result.getMissingPeriods() < best.getMissingPeriods())) {
+                    best = result;
+                }
+            }
+            if (best == null) {
+                best = new Result(new Timetable(calendar), Integer.MAX_VALUE, null, seed);
+            } else if (best.getMissingPeriods() > 0) {
+                System.out.println("Portfolio could not schedule " + best.getMissingPeriods() + " periods");
+            }
+            return best;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Result runOnce(SolverEngine engine, long runSeed, SolveControl portfolio,
+                           ProblemInstance instance, List<Subject> subjects) {
+        if (portfolio.isStopped()) {
+            return null;
+        }
+        TimetableGenerator generator = new TimetableGenerator(calendar, engine);
+        generator.setSeed(runSeed);
+        generator.setControl(portfolio.child(runBudgetMillis));
+        generator.setReportUnscheduled(false);
+        generator.setBalanceTeacherLoad(balanceTeacherLoad);
+        generator.setImprovementMoves(improvementMoves);
+
+        Timetable timetable = generator.generateTimetable(instance);
+        int missing = generator.countMissingPeriods(timetable, subjects);
+        if (missing == 0) {
+            portfolio.cancel();
+        }
+        return new Result(timetable, missing, engine, runSeed);
+    }
+
+    private Result get(Future<Result> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            System.err.println("Portfolio run failed: " + e.getCause());
+            return null;
+        }
+    }
+
+    static class Result {
+
+        private final Timetable timetable;
+        private final int missingPeriods;
+        private final SolverEngine engine;
+        private final long seed;
+
+        Result(Timetable timetable, int missingPeriods, SolverEngine engine, long seed) {
+            this.timetable = timetable;
+            this.missingPeriods = missingPeriods;
+            this.engine = engine;
+            this.seed = seed;
+        }
+
+        public Timetable getTimetable() {
+            return timetable;
+        }
+
+        public int getMissingPeriods() {
+            return missingPeriods;
+        }
+
+        public boolean isComplete() {
+            return missingPeriods == 0;
+        }
+
+        public SolverEngine getEngine() {
+            return engine;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+// Teachers, subjects, classrooms and sections read from a text problem file.
+//
+// One item per line, fields separated by '|', lists by ',', '#' starts a comment:
+//
+//   periods 9
+//   days 6
+//   breaks 4, 7
+//   blocks 2: 1, 2, 5, 8; 3: 1, 5
+//   lessons Chemistry: 3; Physics: 3
+//   engine backtracking
+//   seed 42
+//   improve 2000000
+//   soft true
+//   teacher Nimal Perera | Combined Maths, Physics | 4
+//   subject Combined Maths | 6 | no-lab
+//   classroom Lab 1 | lab | 40
+//   section 12A | Combined Maths, Physics
+//
+// Settings are optional and override the batch defaults; the calendar settings
+// are read by SchoolCalendar.fromSettings. Without section lines the file
+// describes one class group taking every subject.
+class ProblemFile {
+
+    private final String name;
+    private final Map<String, String> settings = new LinkedHashMap<>();
+    private final List<Teacher> teachers = new ArrayList<>();
+    private final List<Subject> subjects = new ArrayList<>();
+    private final List<Classroom> classrooms = new ArrayList<>();
+    private final List<ClassGroup> sections = new ArrayList<>();
+
+    private ProblemFile(String name) {
+        this.name = name;
+    }
+
+    public static ProblemFile read(Path file) throws IOException {
+        String fileName = file.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        ProblemFile problem = new ProblemFile(dot > 0 ? fileName.substring(0, dot) : fileName);
+
+        List<String[]> sectionLines = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                String keyword = space < 0 ? line : line.substring(0, space);
+                String rest = space < 0 ? "" : line.substring(space + 1).trim();
+                try {
+                    problem.parse(keyword, rest, sectionLines);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+
+        // Sections refer to subjects by name, wherever they were declared
+        for (String[] fields : sectionLines) {
+            List<Subject> taken = new ArrayList<>();
+            for (String subjectName : list(fields[1])) {
+                taken.add(problem.subjects.stream()
+                        .filter(s -> s.getName().equals(subjectName))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalArgumentException(
+                                file + ": section " + fields[0] + " takes unknown subject " + subjectName)));
+            }
+            problem.sections.add(new ClassGroup(fields[0], taken));
+        }
+        if (problem.teachers.isEmpty() || problem.subjects.isEmpty() || problem.classrooms.isEmpty()) {
+            throw new IllegalArgumentException(file + ": needs at least one teacher, subject and classroom");
+        }
+        return problem;
+    }
+
+    private void parse(String keyword, String rest, List<String[]> sectionLines) {
+        switch (keyword) {
+            case "periods":
+            case "days":
+            case "breaks":
+            case "blocks":
+            case "lessons":
+            case "engine":
+            case "seed":
+            case "improve":
+            case "balance":
+            case "soft":
+                settings.put(keyword, rest);
+                break;
+            case "teacher": {
+                String[] fields = fields(rest, 3);
+                teachers.add(new Teacher(fields[0], list(fields[1]), number(fields[2])));
+                break;
+            }
+            case "subject": {
+                String[] fields = fields(rest, 3);
+                subjects.add(new Subject(fields[0], number(fields[1]), lab(fields[2])));
+                break;
+            }
+            case "classroom": {
+                String[] fields = fields(rest, 3);
+                classrooms.add(new Classroom(fields[0], lab(fields[1]), number(fields[2])));
+                break;
+            }
+            case "section":
+                sectionLines.add(fields(rest, 2));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown keyword '" + keyword + "'");
+        }
+    }
+
+    private static String[] fields(String text, int count) {
+        String[] fields = text.split("\\|", -1);
+        if (fields.length != count) {
+            throw new IllegalArgumentException("expected " + count + " fields separated by '|'");
+        }
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].trim();
+        }
+        if (fields[0].isEmpty()) {
+            throw new IllegalArgumentException("name is empty");
+        }
+        return fields;
+    }
+
+    private static List<String> list(String text) {
+        List<String> items = new ArrayList<>();
+        for (String item : text.split(",")) {
+            if (!item.trim().isEmpty()) {
+                items.add(item.trim());
+            }
+        }
+        return items;
+    }
+
+    private static int number(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + text + "' is not a number");
+        }
+    }
+
+    private static boolean lab(String text) {
+        if (text.equals("lab")) return true;
+        if (text.equals("no-lab")) return false;
+        throw new IllegalArgumentException("expected 'lab' or 'no-lab', found '" + text + "'");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Setting from the file, or the fallback if the file does not set it
+    public String getSetting(String key, String fallback) {
+        return settings.getOrDefault(key, fallback);
+    }
+
+    public List<Teacher> getTeachers() {
+        return teachers;
+    }
+
+    public List<Subject> getSubjects() {
+        return subjects;
+    }
+
+    public List<Classroom> getClassrooms() {
+        return classrooms;
+    }
+
+    // Empty when the file has no section lines
+    public List<ClassGroup> getSections() {
+        return sections;
+    }
+}
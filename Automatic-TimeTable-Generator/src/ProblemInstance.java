@@ -0,0 +1,216 @@
+import java.util.*;
+
+// Immutable, compiled form of the teacher, subject and classroom lists.
+//
+// Teachers, classrooms and subjects (interned by name) get dense integer IDs.
+// Qualification and room suitability are precomputed as bitsets and ID arrays,
+// together with the start slots of every valid lesson (taken from the
+// calendar's block tables), so solvers work only on primitives and one instance
+// can be shared by many solver runs. Arrays returned by the getters are shared
+// and must not be modified.
+class ProblemInstance {
+
+    private final SchoolCalendar calendar;
+    private final int periodsPerDay;
+    private final int days;
+    private final int slotCount;
+
+    private final Teacher[] teachers;
+    private final Classroom[] classrooms;
+    private final Subject[] subjects;
+    private final Map<String, Integer> subjectIds;
+    private final int[] inputSubjectIds;
+
+    private final BitSet[] qualifiedTeacherSet;
+    private final int[][] qualifiedTeachers;
+    private final BitSet labRooms;
+    private final BitSet nonLabRooms;
+    private final int[][] suitableRooms;
+
+    private final int[] lessonLength;
+    private final int[] requiredLessons;
+    private final int[][] startSlots;
+
+    private ProblemInstance(TimetableGenerator rules, List<Teacher> teacherList,
+                            List<Subject> subjectList, List<Classroom> classroomList) {
+        calendar = rules.getCalendar();
+        periodsPerDay = calendar.getPeriodsPerDay();
+        days = calendar.getDays();
+        slotCount = days * periodsPerDay;
+
+        // Deduplicated by identity, matching the IDs ResourceOccupancy hands out
+        teachers = distinct(teacherList).toArray(new Teacher[0]);
+        classrooms = distinct(classroomList).toArray(new Classroom[0]);
+
+        subjectIds = new HashMap<>();
+        List<Subject> interned = new ArrayList<>();
+        inputSubjectIds = new int[subjectList.size()];
+        for (int i = 0; i < subjectList.size(); i++) {
+            Subject subject = subjectList.get(i);
+            Integer id = subjectIds.get(subject.getName());
+            if (id == null) {
+                id = interned.size();
+                subjectIds.put(subject.getName(), id);
+                interned.add(subject);
+            }
+            inputSubjectIds[i] = id;
+        }
+        subjects = interned.toArray(new Subject[0]);
+
+        // subject -> qualified teachers
+        qualifiedTeacherSet = new BitSet[subjects.length];
+        for (int s = 0; s < subjects.length; s++) {
+            qualifiedTeacherSet[s] = new BitSet(teachers.length);
+        }
+        for (int t = 0; t < teachers.length; t++) {
+            for (String name : teachers[t].getSubjects()) {
+                Integer s = subjectIds.get(name);
+                if (s != null) {
+                    qualifiedTeacherSet[s].set(t);
+                }
+            }
+        }
+        qualifiedTeachers = new int[subjects.length][];
+        for (int s = 0; s < subjects.length; s++) {
+            qualifiedTeachers[s] = qualifiedTeacherSet[s].stream().toArray();
+        }
+
+        // lab / non-lab rooms; lab subjects need a lab, others can use any room
+        labRooms = new BitSet(classrooms.length);
+        nonLabRooms = new BitSet(classrooms.length);
+        for (int r = 0; r < classrooms.length; r++) {
+            (classrooms[r].isLab() ? labRooms : nonLabRooms).set(r);
+        }
+        int[] labRoomIds = labRooms.stream().toArray();
+        int[] allRoomIds = new int[classrooms.length];
+        Arrays.setAll(allRoomIds, r -> r);
+        suitableRooms = new int[subjects.length][];
+        for (int s = 0; s < subjects.length; s++) {
+            suitableRooms[s] = subjects[s].requiresLab() ? labRoomIds : allRoomIds;
+        }
+
+        // lesson shapes and every valid start slot per subject; subjects with the
+        // same lesson length share one block table
+        lessonLength = new int[subjects.length];
+        requiredLessons = new int[subjects.length];
+        startSlots = new int[subjects.length][];
+        for (int s = 0; s < subjects.length; s++) {
+            lessonLength[s] = rules.getLessonLength(subjects[s]);
+            requiredLessons[s] = rules.getRequiredLessons(subjects[s]);
+            startSlots[s] = rules.getStartSlots(subjects[s]);
+        }
+    }
+
+    public static ProblemInstance compile(TimetableGenerator rules, List<Teacher> teachers,
+                                          List<Subject> subjects, List<Classroom> classrooms) {
+        return new ProblemInstance(rules, teachers, subjects, classrooms);
+    }
+
+    private static <T> List<T> distinct(List<T> items) {
+        Set<T> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<T> result = new ArrayList<>();
+        for (T item : items) {
+            if (seen.add(item)) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    public SchoolCalendar getCalendar() {
+        return calendar;
+    }
+
+    public int getPeriodsPerDay() {
+        return periodsPerDay;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getTeacherCount() {
+        return teachers.length;
+    }
+
+    public int getClassroomCount() {
+        return classrooms.length;
+    }
+
+    public int getSubjectCount() {
+        return subjects.length;
+    }
+
+    public Teacher getTeacher(int id) {
+        return teachers[id];
+    }
+
+    public Classroom getClassroom(int id) {
+        return classrooms[id];
+    }
+
+    public Subject getSubject(int id) {
+        return subjects[id];
+    }
+
+    // -1 if no subject with this name was compiled
+    public int subjectId(String name) {
+        Integer id = subjectIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    // Subject ID of every entry of the input subject list, in input order
+    public int[] getInputSubjectIds() {
+        return inputSubjectIds;
+    }
+
+    public int[] subjectIds(List<Subject> subjectList) {
+        return subjectList.stream().mapToInt(s -> subjectId(s.getName())).filter(id -> id >= 0).toArray();
+    }
+
+    public boolean isQualified(int teacherId, int subjectId) {
+        return qualifiedTeacherSet[subjectId].get(teacherId);
+    }
+
+    public int[] getQualifiedTeachers(int subjectId) {
+        return qualifiedTeachers[subjectId];
+    }
+
+    public boolean isSuitableRoom(int classroomId, int subjectId) {
+        return !subjects[subjectId].requiresLab() || labRooms.get(classroomId);
+    }
+
+    public int[] getSuitableRooms(int subjectId) {
+        return suitableRooms[subjectId];
+    }
+
+    public BitSet getLabRooms() {
+        return labRooms;
+    }
+
+    public BitSet getNonLabRooms() {
+        return nonLabRooms;
+    }
+
+    public int getLessonLength(int subjectId) {
+        return lessonLength[subjectId];
+    }
+
+    public int getRequiredLessons(int subjectId) {
+        return requiredLessons[subjectId];
+    }
+
+    // Start slots of every valid lesson of the subject, ordered by slot
+    public int[] getStartSlots(int subjectId) {
+        return startSlots[subjectId];
+    }
+
+    // Start slots of every valid block of the given length in the week
+    public int[] getBlocks(int length) {
+        return calendar.getBlocks(length);
+    }
+}
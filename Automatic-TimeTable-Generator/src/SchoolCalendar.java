@@ -0,0 +1,271 @@
+import java.util.*;
+import java.util.function.Function;
+
+// The school week: days, periods per day, breaks, and the lesson blocks the
+// week allows.
+//
+// A block is a run of consecutive periods on one day that covers no break.
+// Blocks of a given length may be limited to certain start periods (double
+// periods start in the morning-friendly periods by default), and subjects may
+// be given a block length other than the generator's default. Every valid
+// block of every length is worked out once, when the calendar is built, as
+// start slots (day * periodsPerDay + period - 1) in slot order, so solvers and
+// the repairer read a table instead of enumerating blocks for each subject and
+// retry. Arrays returned by the getters are shared and must not be modified.
+final class SchoolCalendar {
+
+    static final int DEFAULT_DAYS = 5; // Monday-Friday
+    static final int DEFAULT_PERIODS = 9;
+    private static final int[] DEFAULT_BREAKS = {5}; // lunch break
+    private static final int[] DEFAULT_DOUBLE_STARTS = {1, 2, 3, 6, 7}; // only morning-friendly start periods
+    private static final int[] NONE = new int[0];
+
+    private final int days;
+    private final int periodsPerDay;
+    private final boolean[] isBreak;       // by period, from 1
+    private final int[] breaks;
+    private final int[] teachingPeriods;
+    private final int[] teachingBefore;    // teaching periods before each period
+    private final Map<String, Integer> lessonLengths;
+
+    // By block length, from 1: valid start periods and the start slots they give
+    private final int[][] blockStarts;
+    private final int[][] blocks;
+    // By period: the slot of that period on every day
+    private final int[][] periodSlots;
+
+    // Blocks of a length missing from allowedStarts may start in any period;
+    // lessonLengths maps subject names to their block length
+    SchoolCalendar(int days, int periodsPerDay, int[] breaks,
+                   Map<Integer, int[]> allowedStarts, Map<String, Integer> lessonLengths) {
+        if (days < 1 || days > DayOfWeek.values().length) {
+            throw new IllegalArgumentException("A week has 1 to " + DayOfWeek.values().length + " days, not " + days);
+        }
+        if (periodsPerDay < 1) {
+            throw new IllegalArgumentException("A day needs at least one period");
+        }
+        this.days = days;
+        this.periodsPerDay = periodsPerDay;
+
+        isBreak = new boolean[periodsPerDay + 1];
+        for (int period : breaks) {
+            // A break after the last period simply does not happen on shorter days
+            if (period < 1) {
+                throw new IllegalArgumentException("Break period " + period + " is not a period");
+            }
+            if (period <= periodsPerDay) {
+                isBreak[period] = true;
+            }
+        }
+        this.breaks = periods(period -> isBreak[period]);
+        this.teachingPeriods = periods(period -> !isBreak[period]);
+        if (teachingPeriods.length == 0) {
+            throw new IllegalArgumentException("Every period of the day is a break");
+        }
+        teachingBefore = new int[periodsPerDay + 2];
+        for (int period = 1; period <= periodsPerDay; period++) {
+            teachingBefore[period + 1] = teachingBefore[period] + (isBreak[period] ? 0 : 1);
+        }
+
+        for (int length : allowedStarts.keySet()) {
+            if (length < 1) {
+                throw new IllegalArgumentException("Block length " + length + " is not a length");
+            }
+        }
+
+        blockStarts = new int[periodsPerDay + 1][];
+        blocks = new int[periodsPerDay + 1][];
+        for (int length = 1; length <= periodsPerDay; length++) {
+            int blockLength = length;
+            int[] allowed = allowedStarts.get(length);
+            blockStarts[length] = (allowed != null ? Arrays.stream(allowed) : Arrays.stream(teachingPeriods))
+                    .filter(period -> fits(period, blockLength))
+                    .sorted()
+                    .distinct()
+                    .toArray();
+            blocks[length] = slotsFor(blockStarts[length]);
+        }
+        periodSlots = new int[periodsPerDay + 1][];
+        for (int period = 1; period <= periodsPerDay; period++) {
+            periodSlots[period] = slotsFor(new int[]{period});
+        }
+
+        this.lessonLengths = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> entry : lessonLengths.entrySet()) {
+            if (getBlocks(entry.getValue()).length == 0) {
+                throw new IllegalArgumentException("No " + entry.getValue() + "-period block fits the day for "
+                        + entry.getKey());
+            }
+            this.lessonLengths.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // Monday to Friday, a break in period 5 and double periods from periods 1, 2, 3, 6 and 7
+    public static SchoolCalendar standard(int periodsPerDay) {
+        return new SchoolCalendar(DEFAULT_DAYS, periodsPerDay, DEFAULT_BREAKS,
+                Map.of(2, DEFAULT_DOUBLE_STARTS), Map.of());
+    }
+
+    // Reads the calendar from named settings, null when unset:
+    //   days     6
+    //   periods  9
+    //   breaks   4, 7
+    //   blocks   2: 1, 2, 5, 8; 3: 1, 5     (start periods per block length)
+    //   lessons  Chemistry: 3; Physics: 3   (block length per subject)
+    // Unset settings keep the standard calendar's values.
+    public static SchoolCalendar fromSettings(Function<String, String> setting) {
+        int days = number(setting.apply("days"), DEFAULT_DAYS, "days");
+        int periods = number(setting.apply("periods"), DEFAULT_PERIODS, "periods");
+        int[] breaks = setting.apply("breaks") == null ? DEFAULT_BREAKS : numbers(setting.apply("breaks"), "breaks");
+
+        Map<Integer, int[]> allowedStarts = new HashMap<>();
+        allowedStarts.put(2, DEFAULT_DOUBLE_STARTS);
+        for (Map.Entry<String, String> entry : pairs(setting.apply("blocks"), "blocks").entrySet()) {
+            allowedStarts.put(number(entry.getKey(), 0, "blocks"), numbers(entry.getValue(), "blocks"));
+        }
+        Map<String, Integer> lessonLengths = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : pairs(setting.apply("lessons"), "lessons").entrySet()) {
+            lessonLengths.put(entry.getKey(), number(entry.getValue(), 0, "lessons"));
+        }
+        return new SchoolCalendar(days, periods, breaks, allowedStarts, lessonLengths);
+    }
+
+    // The desktop app's calendar, from -Dtimetable.days, -Dtimetable.periods,
+    // -Dtimetable.breaks, -Dtimetable.blocks and -Dtimetable.lessons
+    public static SchoolCalendar configured() {
+        return fromSettings(key -> System.getProperty("timetable." + key));
+    }
+
+    private static int number(String text, int fallback, String setting) {
+        if (text == null) {
+            return fallback;
+        }
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + setting + "' expects a number, not '" + text.trim() + "'");
+        }
+    }
+
+    private static int[] numbers(String text, String setting) {
+        return Arrays.stream(text.split(","))
+                .filter(item -> !item.trim().isEmpty())
+                .mapToInt(item -> number(item, 0, setting))
+                .toArray();
+    }
+
+    // "key: value; key: value", in order
+    private static Map<String, String> pairs(String text, String setting) {
+        Map<String, String> pairs = new LinkedHashMap<>();
+        if (text == null) {
+            return pairs;
+        }
+        for (String item : text.split(";")) {
+            if (item.trim().isEmpty()) continue;
+            int colon = item.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("'" + setting + "' expects 'name: value' items separated by ';'");
+            }
+            pairs.put(item.substring(0, colon).trim(), item.substring(colon + 1).trim());
+        }
+        return pairs;
+    }
+
+    private boolean fits(int start, int length) {
+        int end = start + length - 1;
+        return start >= 1 && end <= periodsPerDay && teachingBefore[end + 1] - teachingBefore[start] == length;
+    }
+
+    private int[] periods(java.util.function.IntPredicate filter) {
+        return java.util.stream.IntStream.rangeClosed(1, periodsPerDay).filter(filter).toArray();
+    }
+
+    private int[] slotsFor(int[] periods) {
+        int[] slots = new int[periods.length * days];
+        int i = 0;
+        for (int day = 0; day < days; day++) {
+            for (int period : periods) {
+                slots[i++] = day * periodsPerDay + period - 1;
+            }
+        }
+        return slots;
+    }
+
+    public int getDays() {
+        return days;
+    }
+
+    public int getPeriodsPerDay() {
+        return periodsPerDay;
+    }
+
+    public int getSlotCount() {
+        return days * periodsPerDay;
+    }
+
+    public DayOfWeek getDay(int day) {
+        return DayOfWeek.values()[day];
+    }
+
+    // "Monday", "Tuesday", ...
+    public String getDayName(int day) {
+        String name = getDay(day).name();
+        return name.charAt(0) + name.substring(1).toLowerCase();
+    }
+
+    public boolean isBreak(int period) {
+        return period >= 1 && period <= periodsPerDay && isBreak[period];
+    }
+
+    public int[] getBreaks() {
+        return breaks;
+    }
+
+    // Periods that are not breaks, in order
+    public int[] getTeachingPeriods() {
+        return teachingPeriods;
+    }
+
+    // Teaching periods from `first` to `last`, both included
+    public int countTeachingPeriods(int first, int last) {
+        return teachingBefore[last + 1] - teachingBefore[first];
+    }
+
+    // Periods a block of the given length may start in; empty if none fits
+    public int[] getBlockStarts(int length) {
+        return length >= 1 && length <= periodsPerDay ? blockStarts[length] : NONE;
+    }
+
+    // Start slots of every valid block of the given length in the week
+    public int[] getBlocks(int length) {
+        return length >= 1 && length <= periodsPerDay ? blocks[length] : NONE;
+    }
+
+    // The slot of the period on every day
+    public int[] getPeriodSlots(int period) {
+        return period >= 1 && period <= periodsPerDay ? periodSlots[period] : NONE;
+    }
+
+    // Block length configured for the subject, or 0 to use the generator's default
+    public int getLessonLength(String subject) {
+        return lessonLengths.getOrDefault(subject, 0);
+    }
+
+    Map<String, Integer> getLessonLengths() {
+        return Collections.unmodifiableMap(lessonLengths);
+    }
+
+    // "6 days x 9 periods, breaks 4, 7"
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(days).append(" days x ").append(periodsPerDay).append(" periods");
+        if (breaks.length > 0) {
+            sb.append(breaks.length == 1 ? ", break " : ", breaks ");
+            for (int i = 0; i < breaks.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(breaks[i]);
+            }
+        }
+        return sb.toString();
+    }
+}
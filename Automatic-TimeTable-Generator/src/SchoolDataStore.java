@@ -0,0 +1,588 @@
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+import javax.swing.event.TableModelEvent;
+
+// Saves teachers, subjects, classrooms and the last generated timetable between
+// sessions.
+//
+// State lives in two files: a binary snapshot and an append-only journal of
+// the edits made since. Every add or remove on an attached table model appends
+// one checksummed record, so a save costs a few bytes; once the journal grows
+// past COMPACT_RECORDS the current state is written as a new snapshot and the
+// journal starts over. Both files carry a generation number, so a journal is
+// only replayed onto the snapshot it was written after, even if compaction was
+// interrupted. A large snapshot is read through a memory mapping. A mapped file
+// cannot be replaced while the mapping lives (on Windows), so each snapshot is
+// written to a new file named after its generation and older ones are deleted
+// once they can be. The journal is truncated and replaced, so it is always read
+// onto the heap.
+//
+// Timetable entries are stored as positions in the teacher/subject/classroom
+// lists, so a restored timetable refers to the same objects as the models.
+class SchoolDataStore {
+
+    private static final int SNAPSHOT_MAGIC = 0x54545331; // "TTS1"
+    private static final int JOURNAL_MAGIC = 0x54544A31;  // "TTJ1"
+    // Version 2 saves the timetable's day count; version 1 timetables have five days
+    private static final int FORMAT_VERSION = 2;
+    private static final long MAP_THRESHOLD = 64 * 1024;
+    private static final int COMPACT_RECORDS = 1000;
+
+    // Journal operations and the list they apply to; TIMETABLE is the version 1
+    // record, replayed but no longer written
+    private static final byte ADD = 1, REMOVE = 2, REPLACE_ALL = 3, TIMETABLE = 4, ADD_ALL = 5, REMOVE_RANGE = 6,
+            WEEK_TIMETABLE = 7;
+    private static final byte TEACHERS = 1, SUBJECTS = 2, CLASSROOMS = 3;
+
+    private final Path directory;
+    private final Path journalFile;
+    private final List<Teacher> teachers = new ArrayList<>();
+    private final List<Subject> subjects = new ArrayList<>();
+    private final List<Classroom> classrooms = new ArrayList<>();
+    private Timetable timetable;
+    private long generation;
+    private DataOutputStream journal;
+    private int journalRecords;
+    private boolean attached;
+
+    // The models' own lists, to tell whether every change has been recorded
+    private List<Teacher> liveTeachers;
+    private List<Subject> liveSubjects;
+    private List<Classroom> liveClassrooms;
+    private boolean timetablePending;
+
+    private SchoolDataStore(Path directory) {
+        this.directory = directory;
+        this.journalFile = directory.resolve("school.journal");
+    }
+
+    // Loads the saved state from the directory, creating it if needed
+    public static SchoolDataStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        SchoolDataStore store = new SchoolDataStore(directory);
+        store.load();
+        return store;
+    }
+
+    // Data directory from -Dtimetable.dataDir, or a folder in the user's home
+    public static Path defaultDirectory() {
+        String configured = System.getProperty("timetable.dataDir");
+        return configured != null
+                ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".timetable-generator");
+    }
+
+    // Opens the default store and fills the models from it; null (after
+    // reporting why) if the saved data cannot be read, so nothing overwrites it
+    public static SchoolDataStore openAttached(TeacherTableModel teacherModel, SubjectTableModel subjectModel,
+                                               ClassroomTableModel classroomModel) {
+        Path directory = defaultDirectory();
+        try {
+            SchoolDataStore store = open(directory);
+            store.attach(teacherModel, subjectModel, classroomModel);
+            return store;
+        } catch (IOException e) {
+            System.err.println("Could not load saved data from " + directory + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // ---- Loading ----
+
+    private void load() throws IOException {
+        Path snapshotFile = latestSnapshot();
+        if (snapshotFile != null) {
+            readSnapshot(snapshotFile, map(snapshotFile));
+        }
+        long journalEnd = Files.exists(journalFile) ? replayJournal() : -1;
+        if (journalEnd < 0) {
+            startJournal();
+        } else {
+            // Cut off a record torn by a crash, then keep appending after the good ones
+            try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+                channel.truncate(journalEnd);
+            }
+            journal = openJournal();
+        }
+        if (journalRecords >= COMPACT_RECORDS) {
+            compact();
+        }
+    }
+
+    // school.<generation>.snapshot with the highest generation, else the
+    // single school.snapshot of older versions, or null
+    private Path latestSnapshot() throws IOException {
+        Path latest = null;
+        long latestGeneration = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "school.*.snapshot")) {
+            for (Path file : files) {
+                long fileGeneration = snapshotGeneration(file);
+                if (fileGeneration > latestGeneration) {
+                    latest = file;
+                    latestGeneration = fileGeneration;
+                }
+            }
+        }
+        if (latest == null && Files.exists(directory.resolve("school.snapshot"))) {
+            latest = directory.resolve("school.snapshot");
+        }
+        return latest;
+    }
+
+    // Generation in a snapshot file's name, or -1 for any other name
+    private static long snapshotGeneration(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.matches("school\\.\\d+\\.snapshot")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring("school.".length(), name.length() - ".snapshot".length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Maps a large file; the mapping stays until the buffer is collected
+    private static ByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAP_THRESHOLD) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+        }
+        return read(file);
+    }
+
+    private static ByteBuffer read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException(file + " is too large to load");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the buffer is full
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    private void readSnapshot(Path snapshotFile, ByteBuffer buffer) throws IOException {
+        try {
+            int version = buffer.getInt() == SNAPSHOT_MAGIC ? buffer.getInt() : -1;
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException(snapshotFile + " is not a timetable snapshot this version can read");
+            }
+            // The last four bytes are a CRC of everything before them
+            ByteBuffer body = buffer.duplicate();
+            body.position(0).limit(buffer.limit() - 4);
+            if (crc(body) != buffer.getInt(buffer.limit() - 4)) {
+                throw new IOException(snapshotFile + " is damaged (checksum mismatch)");
+            }
+            generation = buffer.getLong();
+            applyAll(TEACHERS, buffer);
+            applyAll(SUBJECTS, buffer);
+            applyAll(CLASSROOMS, buffer);
+            if (buffer.get() != 0) {
+                timetable = readTimetable(buffer, version >= 2);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException(snapshotFile + " is truncated", e);
+        }
+    }
+
+    // Applies the journal's records in order; returns the offset after the last
+    // good record, or -1 if the journal belongs to an older snapshot
+    private long replayJournal() throws IOException {
+        ByteBuffer buffer = read(journalFile);
+        if (buffer.remaining() < 12 || buffer.getInt() != JOURNAL_MAGIC || buffer.getLong() != generation) {
+            return -1;
+        }
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                return start;
+            }
+            ByteBuffer record = buffer.slice();
+            record.limit(length);
+            if (crc(record.duplicate()) != checksum) {
+                return start;
+            }
+            try {
+                apply(record);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                return start;
+            }
+            buffer.position(start + 8 + length);
+            journalRecords++;
+        }
+        return buffer.position();
+    }
+
+    private void apply(ByteBuffer record) {
+        byte op = record.get();
+        byte list = record.get();
+        switch (op) {
+            case ADD:
+                add(list, record);
+                break;
+            case REMOVE:
+                listFor(list).remove(record.getInt());
+                break;
+            case ADD_ALL:
+                applyAll(list, record);
+                break;
+            case REMOVE_RANGE:
+                int first = record.getInt();
+                listFor(list).subList(first, first + record.getInt()).clear();
+                break;
+            case REPLACE_ALL:
+                listFor(list).clear();
+                applyAll(list, record);
+                break;
+            case TIMETABLE:
+            case WEEK_TIMETABLE:
+                timetable = record.get() != 0 ? readTimetable(record, op == WEEK_TIMETABLE) : null;
+                break;
+            default:
+                throw new IndexOutOfBoundsException("Unknown journal operation " + op);
+        }
+    }
+
+    private void applyAll(byte list, ByteBuffer buffer) {
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            add(list, buffer);
+        }
+    }
+
+    private void add(byte list, ByteBuffer buffer) {
+        if (list == TEACHERS) {
+            String name = readString(buffer);
+            int max = buffer.getInt();
+            List<String> taught = new ArrayList<>();
+            for (int i = buffer.getInt(); i > 0; i--) {
+                taught.add(readString(buffer));
+            }
+            teachers.add(new Teacher(name, taught, max));
+        } else if (list == SUBJECTS) {
+            subjects.add(new Subject(readString(buffer), buffer.getInt(), buffer.get() != 0));
+        } else {
+            classrooms.add(new Classroom(readString(buffer), buffer.get() != 0, buffer.getInt()));
+        }
+    }
+
+    private List<?> listFor(byte list) {
+        return list == TEACHERS ? teachers : list == SUBJECTS ? subjects : classrooms;
+    }
+
+    // Entries whose positions no longer exist are dropped
+    private Timetable readTimetable(ByteBuffer buffer, boolean withDays) {
+        int days = withDays ? buffer.getInt() : SchoolCalendar.DEFAULT_DAYS;
+        Timetable restored = new Timetable(days, buffer.getInt());
+        for (int i = buffer.getInt(); i > 0; i--) {
+            int slot = buffer.getInt();
+            int teacher = buffer.getInt();
+            int classroom = buffer.getInt();
+            int subject = buffer.getInt();
+            if (slot < restored.getSlotCount() && teacher < teachers.size()
+                    && classroom < classrooms.size() && subject < subjects.size()) {
+                restored.addEntry(teachers.get(teacher), classrooms.get(classroom),
+                        restored.getTimeslot(slot), subjects.get(subject));
+            }
+        }
+        return restored;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    // ---- Models ----
+
+    // Fills the (empty) models with the saved data, then journals every later change
+    public synchronized void attach(TeacherTableModel teacherModel, SubjectTableModel subjectModel,
+                                    ClassroomTableModel classroomModel) {
+        if (attached) {
+            throw new IllegalStateException("The store is already attached to models");
+        }
+        attached = true;
+        teacherModel.addTeachers(teachers);
+        subjectModel.addSubjects(subjects);
+        classroomModel.addClassrooms(classrooms);
+        liveTeachers = teacherModel.getTeachers();
+        liveSubjects = subjectModel.getSubjects();
+        liveClassrooms = classroomModel.getClassrooms();
+
+        teacherModel.addTableModelListener(e -> recordChange(TEACHERS, e, teacherModel.getTeachers()));
+        subjectModel.addTableModelListener(e -> recordChange(SUBJECTS, e, subjectModel.getSubjects()));
+        classroomModel.addTableModelListener(e -> recordChange(CLASSROOMS, e, classroomModel.getClassrooms()));
+    }
+
+    // Copy of the last saved timetable, referring to the objects handed to the
+    // models; null if none. Each window repairs its own copy.
+    public synchronized Timetable getTimetable() {
+        if (timetable == null) {
+            return null;
+        }
+        Timetable copy = new Timetable(timetable.getDays(), timetable.getPeriodsPerDay());
+        for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+            TimetableEntry entry = timetable.getEntryAt(slot);
+            if (entry != null) {
+                copy.addEntry(entry.getTeacher(), entry.getClassroom(), copy.getTimeslot(slot), entry.getSubject());
+            }
+        }
+        return copy;
+    }
+
+    public synchronized void saveTimetable(Timetable saved) {
+        timetable = saved;
+        // Swing notifies listeners newest first, so a panel repairing its timetable
+        // can save before this store has recorded the edit. Entries are stored as
+        // positions, so wait until the lists match the models again.
+        if (inStep()) {
+            appendTimetable();
+        } else {
+            timetablePending = true;
+        }
+    }
+
+    private boolean inStep() {
+        return !attached || (teachers.equals(liveTeachers) && subjects.equals(liveSubjects)
+                && classrooms.equals(liveClassrooms));
+    }
+
+    private void appendTimetable() {
+        Timetable saved = timetable;
+        timetablePending = false;
+        append(WEEK_TIMETABLE, (byte) 0, out -> writeTimetable(out, saved));
+    }
+
+    private synchronized <T> void recordChange(byte list, TableModelEvent event, List<T> rows) {
+        @SuppressWarnings("unchecked")
+        List<T> mirror = (List<T>) listFor(list);
+        int first = event.getFirstRow();
+        int last = event.getLastRow();
+        if (event.getType() == TableModelEvent.INSERT && first == last && first == mirror.size()) {
+            T item = rows.get(first);
+            mirror.add(item);
+            append(ADD, list, out -> writeItem(out, item));
+        } else if (event.getType() == TableModelEvent.INSERT && first == mirror.size()) {
+            // A bulk add is one record, not one per row
+            List<T> added = new ArrayList<>(rows.subList(first, last + 1));
+            mirror.addAll(added);
+            append(ADD_ALL, list, out -> writeItems(out, added));
+        } else if (event.getType() == TableModelEvent.DELETE && first == last && first >= 0) {
+            mirror.remove(first);
+            append(REMOVE, list, out -> out.writeInt(first));
+        } else if (event.getType() == TableModelEvent.DELETE && first >= 0) {
+            mirror.subList(first, last + 1).clear();
+            append(REMOVE_RANGE, list, out -> {
+                out.writeInt(first);
+                out.writeInt(last - first + 1);
+            });
+        } else {
+            // Updates and whole-table changes are saved as the full list
+            mirror.clear();
+            mirror.addAll(rows);
+            List<T> copy = new ArrayList<>(rows);
+            append(REPLACE_ALL, list, out -> writeItems(out, copy));
+        }
+        if (timetablePending && inStep()) {
+            appendTimetable();
+        }
+    }
+
+    // ---- Writing ----
+
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Record: length, CRC, operation, list, payload
+    private void append(byte op, byte list, Payload payload) {
+        if (journal == null) {
+            return; // closed
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(op);
+            out.writeByte(list);
+            payload.write(out);
+            byte[] record = bytes.toByteArray();
+            journal.writeInt(record.length);
+            journal.writeInt(crc(ByteBuffer.wrap(record)));
+            journal.write(record);
+            journal.flush();
+            if (++journalRecords >= COMPACT_RECORDS) {
+                compact();
+            }
+        } catch (IOException e) {
+            System.err.println("Could not save change: " + e.getMessage());
+        }
+    }
+
+    // Writes the current state as a new snapshot and starts an empty journal
+    public synchronized void compact() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(generation + 1);
+        writeItems(out, teachers);
+        writeItems(out, subjects);
+        writeItems(out, classrooms);
+        writeTimetable(out, timetable);
+        out.writeInt(crc(ByteBuffer.wrap(bytes.toByteArray())));
+
+        Path temp = Files.createTempFile(directory, "school", ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, directory.resolve("school." + (generation + 1) + ".snapshot"), StandardCopyOption.ATOMIC_MOVE);
+
+        // The old journal is now stale: its generation no longer matches the snapshot
+        generation++;
+        if (journal != null) {
+            journal.close();
+        }
+        startJournal();
+        deleteOldSnapshots();
+    }
+
+    // Older snapshots are no longer read; one still mapped is left for a later compaction
+    private void deleteOldSnapshots() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "school*.snapshot")) {
+            for (Path file : files) {
+                if (snapshotGeneration(file) >= generation) continue;
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    // still mapped
+                }
+            }
+        }
+    }
+
+    private void startJournal() throws IOException {
+        Path temp = Files.createTempFile(directory, "school", ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeInt(JOURNAL_MAGIC);
+            out.writeLong(generation);
+        }
+        Files.move(temp, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = openJournal();
+        journalRecords = 0;
+    }
+
+    private DataOutputStream openJournal() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(journalFile, StandardOpenOption.APPEND)));
+    }
+
+    // Compacts and closes the journal; the store cannot be used afterwards
+    public synchronized void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        if (journalRecords > 0) {
+            compact();
+        }
+        journal.close();
+        journal = null;
+    }
+
+    private void writeItems(DataOutputStream out, List<?> items) throws IOException {
+        out.writeInt(items.size());
+        for (Object item : items) {
+            writeItem(out, item);
+        }
+    }
+
+    private static void writeItem(DataOutputStream out, Object item) throws IOException {
+        if (item instanceof Teacher) {
+            Teacher teacher = (Teacher) item;
+            writeString(out, teacher.getName());
+            out.writeInt(teacher.getMaxPeriodPerDay());
+            out.writeInt(teacher.getSubjects().size());
+            for (String subject : teacher.getSubjects()) {
+                writeString(out, subject);
+            }
+        } else if (item instanceof Subject) {
+            Subject subject = (Subject) item;
+            writeString(out, subject.getName());
+            out.writeInt(subject.getWeeklyPeriod());
+            out.writeBoolean(subject.requiresLab());
+        } else {
+            Classroom classroom = (Classroom) item;
+            writeString(out, classroom.getClassRoom());
+            out.writeBoolean(classroom.isLab());
+            out.writeInt(classroom.getCapacity());
+        }
+    }
+
+    // Entries whose objects are no longer in the lists are left out
+    private void writeTimetable(DataOutputStream out, Timetable saved) throws IOException {
+        if (saved == null) {
+            out.writeBoolean(false);
+            return;
+        }
+        out.writeBoolean(true);
+        out.writeInt(saved.getDays());
+        out.writeInt(saved.getPeriodsPerDay());
+        List<int[]> entries = new ArrayList<>();
+        for (int slot = 0; slot < saved.getSlotCount(); slot++) {
+            TimetableEntry entry = saved.getEntryAt(slot);
+            if (entry == null) continue;
+            int teacher = indexOf(teachers, entry.getTeacher());
+            int classroom = indexOf(classrooms, entry.getClassroom());
+            int subject = subjectIndex(entry.getSubject());
+            if (teacher >= 0 && classroom >= 0 && subject >= 0) {
+                entries.add(new int[]{slot, teacher, classroom, subject});
+            }
+        }
+        out.writeInt(entries.size());
+        for (int[] entry : entries) {
+            for (int value : entry) {
+                out.writeInt(value);
+            }
+        }
+    }
+
+    private static <T> int indexOf(List<T> items, T item) {
+        for (int i = 0; i < items.size(); i++) {
+            if (items.get(i) == item) return i;
+        }
+        return -1;
+    }
+
+    // Solvers may store the first subject of a given name, so match by name
+    private int subjectIndex(Subject subject) {
+        for (int i = 0; i < subjects.size(); i++) {
+            if (subjects.get(i).getName().equals(subject.getName())) return i;
+        }
+        return -1;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,238 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+// Headless batch generation: solves every problem file in parallel, writes one
+// timetable file per problem and prints a summary. No Swing classes are loaded.
+//
+// Usage: java TimetableBatch [options] <problem file or directory>...
+//   --out <dir>          where results go (default: current directory)
+//   --format <name>      csv, json or ics (default: csv)
+//   --threads <n>        problems solved at once (default: number of cores)
+//   --budget <ms>        time limit per problem, 0 for none (default: 0)
+//   --engine <name>      greedy or backtracking (default: greedy)
+//   --seed <n>           generation seed (default: 1)
+//   --improve <moves>    annealing moves after construction (default: 0)
+//
+// Directories are searched for *.problem files. The exit code is 0 when every
+// timetable is complete, 1 when some have missing periods, 2 when a problem
+// could not be read or solved, and 64 for bad arguments.
+class TimetableBatch {
+
+    static final int EXIT_OK = 0;
+    static final int EXIT_INCOMPLETE = 1;
+    static final int EXIT_FAILED = 2;
+    static final int EXIT_USAGE = 64;
+
+    private final Map<String, String> options = new LinkedHashMap<>();
+    private final List<Path> problems = new ArrayList<>();
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        TimetableBatch batch = new TimetableBatch();
+        try {
+            batch.parseArguments(args);
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: java TimetableBatch [--out dir] [--format csv|json|ics] [--threads n] [--budget ms] "
+                    + "[--engine greedy|backtracking] [--seed n] [--improve moves] <problem file or directory>...");
+            System.exit(EXIT_USAGE);
+        }
+        System.exit(batch.run());
+    }
+
+    private void parseArguments(String[] args) throws IOException {
+        options.put("out", ".");
+        options.put("threads", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        options.put("budget", "0");
+        options.put("engine", "greedy");
+        options.put("seed", "1");
+        options.put("improve", "0");
+        options.put("format", "csv");
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                String name = args[i].substring(2);
+                if (!options.containsKey(name) || i + 1 == args.length) {
+                    throw new IllegalArgumentException("unknown or incomplete option " + args[i]);
+                }
+                options.put(name, args[++i]);
+            } else {
+                addProblems(Paths.get(args[i]));
+            }
+        }
+        if (problems.isEmpty()) {
+            throw new IllegalArgumentException("no problem files given");
+        }
+        if (Integer.parseInt(options.get("threads")) < 1) {
+            throw new IllegalArgumentException("--threads must be at least 1");
+        }
+        engine(options.get("engine"));
+        TimetableExporter.Format.parse(options.get("format"));
+    }
+
+    private void addProblems(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                files.filter(file -> file.getFileName().toString().endsWith(".problem"))
+                        .sorted()
+                        .forEach(problems::add);
+            }
+        } else if (Files.isRegularFile(path)) {
+            problems.add(path);
+        } else {
+            throw new IllegalArgumentException(path + " does not exist");
+        }
+    }
+
+    private static SolverEngine engine(String name) {
+        for (SolverEngine engine : SolverEngine.values()) {
+            if (engine.name().equalsIgnoreCase(name)) {
+                return engine;
+            }
+        }
+        throw new IllegalArgumentException("unknown engine " + name);
+    }
+
+    private int run() {
+        long started = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Integer.parseInt(options.get("threads")));
+        List<Future<Outcome>> futures = new ArrayList<>();
+        for (Path problem : problems) {
+            futures.add(pool.submit(() -> solve(problem)));
+        }
+        pool.shutdown();
+
+        int complete = 0;
+        int incomplete = 0;
+        int failed = 0;
+        long missingPeriods = 0;
+        long solveMillis = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            Outcome outcome;
+            try {
+                outcome = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                return EXIT_FAILED;
+            } catch (ExecutionException e) {
+                outcome = Outcome.failed(problems.get(i), e.getCause());
+            }
+            System.out.println(outcome);
+            if (outcome.error != null) {
+                failed++;
+            } else if (outcome.missingPeriods > 0) {
+                incomplete++;
+                missingPeriods += outcome.missingPeriods;
+            } else {
+                complete++;
+            }
+            solveMillis += outcome.millis;
+        }
+
+        long wallMillis = (System.nanoTime() - started) / 1_000_000;
+        System.out.printf("%d problems: %d complete, %d incomplete (%d periods missing), %d failed; "
+                        + "wall %d ms, solve time %d ms (avg %d ms)%n",
+                problems.size(), complete, incomplete, missingPeriods, failed,
+                wallMillis, solveMillis, solveMillis / problems.size());
+
+        if (failed > 0) return EXIT_FAILED;
+        if (incomplete > 0) return EXIT_INCOMPLETE;
+        return EXIT_OK;
+    }
+
+    private Outcome solve(Path file) {
+        long started = System.nanoTime();
+        try {
+            ProblemFile problem = ProblemFile.read(file);
+            SchoolCalendar calendar = SchoolCalendar.fromSettings(key -> problem.getSetting(key, null));
+            TimetableGenerator generator = new TimetableGenerator(calendar,
+                    engine(problem.getSetting("engine", options.get("engine"))));
+            generator.setSeed(Long.parseLong(problem.getSetting("seed", options.get("seed"))));
+            generator.setImprovementMoves(Long.parseLong(problem.getSetting("improve", options.get("improve"))));
+            generator.setBalanceTeacherLoad(Boolean.parseBoolean(problem.getSetting("balance", "false")));
+            if (Boolean.parseBoolean(problem.getSetting("soft", "false"))) {
+                generator.setScorer(TimetableScorer::standard);
+            }
+            generator.setReportUnscheduled(false);
+            long budget = Long.parseLong(options.get("budget"));
+            if (budget > 0) {
+                generator.setControl(SolveControl.withBudget(budget));
+            }
+
+            Map<String, Timetable> timetables = new LinkedHashMap<>();
+            int missing = 0;
+            if (problem.getSections().isEmpty()) {
+                Timetable timetable = generator.generateTimetable(
+                        problem.getTeachers(), problem.getSubjects(), problem.getClassrooms());
+                timetables.put(problem.getName(), timetable);
+                missing = generator.countMissingPeriods(timetable, problem.getSubjects());
+            } else {
+                SchoolTimetable school = generator.generateTimetables(
+                        problem.getSections(), problem.getTeachers(), problem.getClassrooms());
+                for (ClassGroup section : school.getGroups()) {
+                    timetables.put(section.getName(), school.getTimetable(section));
+                    missing += generator.countMissingPeriods(school.getTimetable(section), section.getSubjects());
+                }
+            }
+
+            TimetableExporter exporter = new TimetableExporter(TimetableExporter.Format.parse(options.get("format")));
+            Path output = Paths.get(options.get("out")).resolve(problem.getName() + "." + exporter.getFormat().extension);
+            write(output, timetables, exporter);
+            return new Outcome(file, output, timetables.size(), missing, millisSince(started), null);
+        } catch (Exception e) {
+            return new Outcome(file, null, 0, 0, millisSince(started), e);
+        }
+    }
+
+    private static long millisSince(long started) {
+        return (System.nanoTime() - started) / 1_000_000;
+    }
+
+    private static void write(Path output, Map<String, Timetable> timetables,
+                              TimetableExporter exporter) throws IOException {
+        Files.createDirectories(output.toAbsolutePath().getParent());
+        try (OutputStream out = Files.newOutputStream(output)) {
+            exporter.export(timetables, out);
+        }
+    }
+
+    // Result line for one problem file
+    private static final class Outcome {
+
+        final Path problem;
+        final Path output;
+        final int sections;
+        final int missingPeriods;
+        final long millis;
+        final Throwable error;
+
+        Outcome(Path problem, Path output, int sections, int missingPeriods, long millis, Throwable error) {
+            this.problem = problem;
+            this.output = output;
+            this.sections = sections;
+            this.missingPeriods = missingPeriods;
+            this.millis = millis;
+            this.error = error;
+        }
+
+        static Outcome failed(Path problem, Throwable error) {
+            return new Outcome(problem, null, 0, 0, 0, error);
+        }
+
+        @Override
+        public String toString() {
+            if (error != null) {
+                return String.format("FAILED      %s: %s", problem, error.getMessage());
+            }
+            return String.format("%-11s %s -> %s (%d section(s), %d periods missing, %d ms)",
+                    missingPeriods == 0 ? "COMPLETE" : "INCOMPLETE", problem, output, sections, missingPeriods, millis);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+// Result cache for generation runs, keyed by a SHA-256 hash of everything that
+// decides the outcome: teachers, subjects and classrooms (in list order, since
+// order affects the seeded search), the calendar rules, engine, improvement
+// moves and seed.
+//
+// Entries are stored by list position rather than by object, so a hit is
+// rebuilt with the caller's own Teacher/Subject/Classroom objects. Recent
+// entries are kept in memory with LRU eviction; with a directory, entries are
+// also written to disk and survive restarts.
+class TimetableCache {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final int capacity;
+    private final Path directory;
+    private final Map<String, Entry> memory;
+    private long hits;
+    private long misses;
+
+    public TimetableCache(int capacity) {
+        this(capacity, null);
+    }
+
+    public TimetableCache(int capacity, Path directory) {
+        this.capacity = capacity;
+        this.directory = directory;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > TimetableCache.this.capacity;
+            }
+        };
+    }
+
+    // Returns the cached timetable for these inputs, or generates and caches it.
+    // Runs stopped early by the generator's control are returned but not cached,
+    // and neither are runs with a soft-constraint scorer, which the key cannot see.
+    public Timetable generate(TimetableGenerator generator, List<Teacher> teachers,
+                              List<Subject> subjects, List<Classroom> classrooms) {
+        if (generator.getScorer() != null) {
+            return generator.generateTimetable(teachers, subjects, classrooms);
+        }
+        String key = key(generator, teachers, subjects, classrooms);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return entry.rebuild(teachers, subjects, classrooms);
+        }
+
+        Timetable timetable = generator.generateTimetable(teachers, subjects, classrooms);
+        if (!generator.getControl().isStopped()) {
+            store(key, Entry.capture(timetable, teachers, subjects, classrooms));
+        }
+        return timetable;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+    }
+
+    private synchronized Entry lookup(String key) {
+        Entry entry = memory.get(key);
+        if (entry == null && directory != null) {
+            entry = readFile(key);
+            if (entry != null) {
+                memory.put(key, entry);
+            }
+        }
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    private synchronized void store(String key, Entry entry) {
+        memory.put(key, entry);
+        if (directory != null) {
+            writeFile(key, entry);
+        }
+    }
+
+    // Canonical SHA-256 of the generation inputs, as a hex string
+    public static String key(TimetableGenerator generator, List<Teacher> teachers,
+                             List<Subject> subjects, List<Classroom> classrooms) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+            out.writeInt(FORMAT_VERSION);
+            SchoolCalendar calendar = generator.getCalendar();
+            out.writeInt(calendar.getDays());
+            out.writeInt(calendar.getPeriodsPerDay());
+            writeInts(out, calendar.getBreaks());
+            for (int length = 1; length <= calendar.getPeriodsPerDay(); length++) {
+                writeInts(out, calendar.getBlockStarts(length));
+            }
+            out.writeUTF(generator.getEngine().name());
+            out.writeLong(generator.getImprovementMoves());
+            out.writeBoolean(generator.isBalanceTeacherLoad());
+            out.writeLong(generator.getSeed());
+
+            out.writeInt(teachers.size());
+            for (Teacher teacher : teachers) {
+                out.writeUTF(teacher.getName());
+                out.writeInt(teacher.getMaxPeriodPerDay());
+                out.writeInt(teacher.getSubjects().size());
+                for (String subject : teacher.getSubjects()) {
+                    out.writeUTF(subject);
+                }
+            }
+            out.writeInt(subjects.size());
+            for (Subject subject : subjects) {
+                out.writeUTF(subject.getName());
+                out.writeInt(subject.getWeeklyPeriod());
+                out.writeBoolean(subject.requiresLab());
+                // Per-subject rules, so changing them invalidates old entries
+                out.writeInt(generator.getLessonLength(subject));
+                out.writeInt(generator.getFixedPeriod(subject));
+            }
+            out.writeInt(classrooms.size());
+            for (Classroom classroom : classrooms) {
+                out.writeUTF(classroom.getClassRoom());
+                out.writeBoolean(classroom.isLab());
+                out.writeInt(classroom.getCapacity());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    // ---- Disk tier ----
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ".timetable");
+    }
+
+    // A missing, unreadable or foreign file is treated as a miss
+    private Entry readFile(String key) {
+        Path file = fileFor(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key)) {
+                return null;
+            }
+            int periodsPerDay = in.readInt();
+            return new Entry(periodsPerDay, readInts(in), readInts(in), readInts(in));
+        } catch (IOException e) {
+            System.err.println("Could not read cached timetable " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Written to a temporary file first so readers never see a partial entry
+    private void writeFile(String key, Entry entry) {
+        try {
+            Files.createDirectories(directory);
+            Path temp = Files.createTempFile(directory, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(key);
+                out.writeInt(entry.periodsPerDay);
+                writeInts(out, entry.teachers);
+                writeInts(out, entry.classrooms);
+                writeInts(out, entry.subjects);
+            }
+            Files.move(temp, fileFor(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not write cached timetable: " + e.getMessage());
+        }
+    }
+
+    // A timetable as list positions per slot; -1 marks an empty slot
+    private static final class Entry {
+
+        final int periodsPerDay;
+        final int[] teachers;
+        final int[] classrooms;
+        final int[] subjects;
+
+        Entry(int periodsPerDay, int[] teachers, int[] classrooms, int[] subjects) {
+            this.periodsPerDay = periodsPerDay;
+            this.teachers = teachers;
+            this.classrooms = classrooms;
+            this.subjects = subjects;
+        }
+
+        static Entry capture(Timetable timetable, List<Teacher> teachers,
+                             List<Subject> subjects, List<Classroom> classrooms) {
+            int slotCount = timetable.getSlotCount();
+            Entry entry = new Entry(timetable.getPeriodsPerDay(),
+                    new int[slotCount], new int[slotCount], new int[slotCount]);
+            for (int slot = 0; slot < slotCount; slot++) {
+                TimetableEntry scheduled = timetable.getEntryAt(slot);
+                if (scheduled == null) {
+                    entry.teachers[slot] = entry.classrooms[slot] = entry.subjects[slot] = -1;
+                    continue;
+                }
+                entry.teachers[slot] = indexOf(teachers, scheduled.getTeacher());
+                entry.classrooms[slot] = indexOf(classrooms, scheduled.getClassroom());
+                entry.subjects[slot] = subjectIndex(subjects, scheduled.getSubject());
+            }
+            return entry;
+        }
+
+        Timetable rebuild(List<Teacher> teachers, List<Subject> subjects, List<Classroom> classrooms) {
+            Timetable timetable = new Timetable(this.teachers.length / periodsPerDay, periodsPerDay);
+            for (int slot = 0; slot < this.teachers.length; slot++) {
+                if (this.teachers[slot] < 0) continue;
+                timetable.addEntry(teachers.get(this.teachers[slot]), classrooms.get(this.classrooms[slot]),
+                        timetable.getTimeslot(slot), subjects.get(this.subjects[slot]));
+            }
+            return timetable;
+        }
+
+        private static <T> int indexOf(List<T> items, T item) {
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) == item) return i;
+            }
+            throw new IllegalArgumentException("Timetable refers to an object outside the inputs");
+        }
+
+        // Solvers may store the first subject of a given name, so match by name
+        private static int subjectIndex(List<Subject> subjects, Subject subject) {
+            for (int i = 0; i < subjects.size(); i++) {
+                if (subjects.get(i).getName().equals(subject.getName())) return i;
+            }
+            throw new IllegalArgumentException("Timetable refers to an unknown subject: " + subject.getName());
+        }
+    }
+}
@@ -0,0 +1,219 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.*;
+
+// Writes timetables as CSV, JSON or iCalendar straight to an output stream.
+//
+// Entries are written one at a time while the slots are walked, through a
+// small buffer, so exporting a whole school takes the same memory as exporting
+// one class. Period times come from PeriodTimes, the labels of the Time column.
+// The stream is flushed but not closed; it belongs to the caller.
+class TimetableExporter {
+
+    enum Format {
+        CSV("text/csv", "csv"),
+        JSON("application/json", "json"),
+        ICS("text/calendar", "ics");
+
+        final String contentType;
+        final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        static Format parse(String name) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(name) || format.name().equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown export format '" + name + "' (use csv, json or ics)");
+        }
+    }
+
+    private static final DateTimeFormatter ICS_LOCAL = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss");
+    private static final int ICS_LINE_OCTETS = 75;
+
+    private final Format format;
+    private final LocalDate weekStart;
+
+    // Calendar events start in the current week
+    public TimetableExporter(Format format) {
+        this(format, LocalDate.now());
+    }
+
+    // Calendar events start in the week containing `week` and repeat weekly
+    public TimetableExporter(Format format, LocalDate week) {
+        this.format = format;
+        this.weekStart = week.with(TemporalAdjusters.previousOrSame(java.time.DayOfWeek.MONDAY));
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void export(String section, Timetable timetable, OutputStream out) throws IOException {
+        export(Collections.singletonMap(section, timetable), out);
+    }
+
+    // Sections in map order, each section's entries in slot order
+    public void export(Map<String, Timetable> sections, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 8192);
+        switch (format) {
+            case CSV:
+                writeCsv(sections, writer);
+                break;
+            case JSON:
+                writeJson(sections, writer);
+                break;
+            default:
+                writeIcs(sections, writer);
+        }
+        writer.flush();
+    }
+
+    // ---- CSV ----
+
+    private static void writeCsv(Map<String, Timetable> sections, Writer out) throws IOException {
+        out.write("section,day,period,start,end,subject,teacher,classroom\n");
+        for (Map.Entry<String, Timetable> section : sections.entrySet()) {
+            Timetable timetable = section.getValue();
+            for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+                TimetableEntry entry = timetable.getEntryAt(slot);
+                if (entry == null) continue;
+                int period = entry.getTimeslot().getPeriod();
+                out.write(csv(section.getKey()));
+                out.write(',');
+                out.write(entry.getTimeslot().getDay().name());
+                out.write(',');
+                out.write(String.valueOf(period));
+                out.write(',');
+                out.write(PeriodTimes.start(period).toString());
+                out.write(',');
+                out.write(PeriodTimes.end(period).toString());
+                out.write(',');
+                out.write(csv(entry.getSubject().getName()));
+                out.write(',');
+                out.write(csv(entry.getTeacher().getName()));
+                out.write(',');
+                out.write(csv(entry.getClassroom().getClassRoom()));
+                out.write('\n');
+            }
+        }
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+        return value;
+    }
+
+    // ---- JSON ----
+
+    // {"sections": [{"name": ..., "entries": [{"day", "period", "start", "end",
+    //  "subject", "teacher", "classroom"}, ...]}, ...]}
+    private static void writeJson(Map<String, Timetable> sections, Writer out) throws IOException {
+        StringBuilder sb = new StringBuilder(256);
+        out.write("{\"sections\":[");
+        boolean firstSection = true;
+        for (Map.Entry<String, Timetable> section : sections.entrySet()) {
+            if (!firstSection) out.write(',');
+            firstSection = false;
+            sb.setLength(0);
+            sb.append("{\"name\":");
+            Json.quote(sb, section.getKey());
+            sb.append(",\"entries\":[");
+            out.append(sb);
+
+            Timetable timetable = section.getValue();
+            boolean firstEntry = true;
+            for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+                TimetableEntry entry = timetable.getEntryAt(slot);
+                if (entry == null) continue;
+                int period = entry.getTimeslot().getPeriod();
+                sb.setLength(0);
+                if (!firstEntry) sb.append(',');
+                firstEntry = false;
+                sb.append("{\"day\":\"").append(entry.getTimeslot().getDay().name())
+                        .append("\",\"period\":").append(period)
+                        .append(",\"start\":\"").append(PeriodTimes.start(period))
+                        .append("\",\"end\":\"").append(PeriodTimes.end(period))
+                        .append("\",\"subject\":");
+                Json.quote(sb, entry.getSubject().getName());
+                sb.append(",\"teacher\":");
+                Json.quote(sb, entry.getTeacher().getName());
+                sb.append(",\"classroom\":");
+                Json.quote(sb, entry.getClassroom().getClassRoom());
+                sb.append('}');
+                out.append(sb);
+            }
+            out.write("]}");
+        }
+        out.write("]}");
+    }
+
+    // ---- iCalendar (RFC 5545) ----
+
+    // One weekly repeating event per lesson, in floating local time. The UID names
+    // the slot and section only, so exporting again (for another week, or after
+    // regenerating) updates the same events instead of adding copies
+    private void writeIcs(Map<String, Timetable> sections, Writer out) throws IOException {
+        String stamp = LocalDateTime.now(ZoneOffset.UTC).format(ICS_LOCAL) + "Z";
+        icsLine(out, "BEGIN:VCALENDAR");
+        icsLine(out, "VERSION:2.0");
+        icsLine(out, "PRODID:-//Automatic Timetable Generator//EN");
+        icsLine(out, "CALSCALE:GREGORIAN");
+        for (Map.Entry<String, Timetable> section : sections.entrySet()) {
+            Timetable timetable = section.getValue();
+            for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+                TimetableEntry entry = timetable.getEntryAt(slot);
+                if (entry == null) continue;
+                int period = entry.getTimeslot().getPeriod();
+                LocalDate date = weekStart.plusDays(entry.getTimeslot().getDay().ordinal());
+                icsLine(out, "BEGIN:VEVENT");
+                icsLine(out, "UID:" + slot + "-" + icsText(section.getKey()) + "@timetable-generator");
+                icsLine(out, "DTSTAMP:" + stamp);
+                icsLine(out, "DTSTART:" + date.atTime(PeriodTimes.start(period)).format(ICS_LOCAL));
+                icsLine(out, "DTEND:" + date.atTime(PeriodTimes.end(period)).format(ICS_LOCAL));
+                icsLine(out, "RRULE:FREQ=WEEKLY");
+                icsLine(out, "SUMMARY:" + icsText(entry.getSubject().getName() + " (" + section.getKey() + ")"));
+                icsLine(out, "LOCATION:" + icsText(entry.getClassroom().getClassRoom()));
+                icsLine(out, "DESCRIPTION:" + icsText("Teacher: " + entry.getTeacher().getName()));
+                icsLine(out, "END:VEVENT");
+            }
+        }
+        icsLine(out, "END:VCALENDAR");
+    }
+
+    private static String icsText(String value) {
+        return value.replace("\\", "\\\\").replace(";", "\\;").replace(",", "\\,")
+                .replace("\r\n", "\\n").replace("\n", "\\n");
+    }
+
+    // Content lines end in CRLF and are folded after 75 octets, never inside a character
+    private static void icsLine(Writer out, String line) throws IOException {
+        int octets = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int width = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : 3;
+            if (octets + width > ICS_LINE_OCTETS) {
+                out.write("\r\n ");
+                octets = 1;
+            }
+            out.write(c);
+            if (width == 4 && i + 1 < line.length()) {
+                out.write(line.charAt(++i));
+            }
+            octets += width;
+        }
+        out.write("\r\n");
+    }
+}
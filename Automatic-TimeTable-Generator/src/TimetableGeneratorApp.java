@@ -1,7 +1,12 @@
 
 import java.awt.*;
+import java.time.Duration;
+import java.time.LocalTime;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import javax.swing.*;
 import javax.swing.table.*;
@@ -12,11 +17,27 @@ public class TimetableGeneratorApp extends JFrame {
     private JTabbedPane tabbedPane;
 
     // Data models
-    private SubjectTableModel subjectModel = new SubjectTableModel();
-    private TeacherTableModel teacherModel = new TeacherTableModel();
-    private ClassroomTableModel classroomModel = new ClassroomTableModel();
+    private final SubjectTableModel subjectModel;
+    private final TeacherTableModel teacherModel;
+    private final ClassroomTableModel classroomModel;
 
     public TimetableGeneratorApp() {
+        this(new TeacherTableModel(), new SubjectTableModel(), new ClassroomTableModel());
+    }
+
+    // Window over existing models, so several windows in one JVM share the same data
+    public TimetableGeneratorApp(TeacherTableModel teacherModel, SubjectTableModel subjectModel,
+                                 ClassroomTableModel classroomModel) {
+        this(teacherModel, subjectModel, classroomModel, null);
+    }
+
+    // With a store, the window restores and saves the generated timetable
+    public TimetableGeneratorApp(TeacherTableModel teacherModel, SubjectTableModel subjectModel,
+                                 ClassroomTableModel classroomModel, SchoolDataStore store) {
+        this.teacherModel = teacherModel;
+        this.subjectModel = subjectModel;
+        this.classroomModel = classroomModel;
+
         setTitle("Automatic Timetable Generator");
         setSize(1000, 700);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -28,7 +49,7 @@ public class TimetableGeneratorApp extends JFrame {
         tabbedPane.addTab("Teachers", new TeacherPanel(teacherModel));
         tabbedPane.addTab("Subjects", new SubjectPanel(subjectModel));
         tabbedPane.addTab("Classrooms", new ClassroomPanel(classroomModel));
-        tabbedPane.addTab("Generate", new GeneratePanel(teacherModel, subjectModel, classroomModel));
+        tabbedPane.addTab("Generate", new GeneratePanel(teacherModel, subjectModel, classroomModel, store));
 
         add(tabbedPane);
 
@@ -41,7 +62,26 @@ public class TimetableGeneratorApp extends JFrame {
 
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
-            new TimetableGeneratorApp().setVisible(true);
+            // Data entered in earlier sessions is loaded back, and every edit is saved as it happens
+            TeacherTableModel teachers = new TeacherTableModel();
+            SubjectTableModel subjects = new SubjectTableModel();
+            ClassroomTableModel classrooms = new ClassroomTableModel();
+            SchoolDataStore store = SchoolDataStore.openAttached(teachers, subjects, classrooms);
+
+            TimetableGeneratorApp app = new TimetableGeneratorApp(teachers, subjects, classrooms, store);
+            if (store != null) {
+                app.addWindowListener(new java.awt.event.WindowAdapter() {
+                    @Override
+                    public void windowClosing(java.awt.event.WindowEvent e) {
+                        try {
+                            store.close();
+                        } catch (java.io.IOException ex) {
+                            System.err.println("Could not compact saved data: " + ex.getMessage());
+                        }
+                    }
+                });
+            }
+            app.setVisible(true);
         });
     }
 }
@@ -72,6 +112,9 @@ class TeacherPanel extends JPanel {
         // Teacher Table
         teacherTable = new JTable(tableModel);
         teacherTable.setRowHeight(30);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Filter"));
+        filterPanel.add(RosterRowSorter.install(teacherTable, tableModel));
 
         // Buttons Panel
         JPanel buttonPanel = new JPanel(new FlowLayout());
@@ -80,6 +123,7 @@ class TeacherPanel extends JPanel {
         buttonPanel.add(createManageSubjectsButton());
         buttonPanel.setBackground(Color.blue);
 
+        add(filterPanel, BorderLayout.NORTH);
         add(new JScrollPane(teacherTable), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
     }
@@ -144,7 +188,7 @@ class TeacherPanel extends JPanel {
             int selectedIndex = subjectList.getSelectedIndex();
             if (selectedIndex >= 0) {
                 String subject = allSubjectsModel.getElementAt(selectedIndex);
-                if (isSubjectAssigned(subject)) {
+                if (tableModel.isSubjectTaught(subject)) {
                     JOptionPane.showMessageDialog(parent,
                             "Cannot remove: Subject is assigned to one or more teachers");
                 } else {
@@ -157,16 +201,6 @@ class TeacherPanel extends JPanel {
         return button;
     }
 
-    private boolean isSubjectAssigned(String subject) {
-        for (int i = 0; i < tableModel.getRowCount(); i++) {
-            String teacherSubjects = (String) tableModel.getValueAt(i, 1);
-            if (teacherSubjects.contains(subject)) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private void showAddTeacherDialog() {
         JDialog dialog = new JDialog();
         dialog.setTitle("Add Teacher");
@@ -223,9 +257,9 @@ class TeacherPanel extends JPanel {
     }
 
     private void removeSelectedTeacher() {
-        int row = teacherTable.getSelectedRow();
-        if (row >= 0) {
-            tableModel.removeTeacher(row);
+        int[] rows = RosterRowSorter.selectedModelRows(teacherTable);
+        if (rows.length > 0) {
+            tableModel.removeTeachers(rows);
         } else {
             JOptionPane.showMessageDialog(this, "Please select a teacher first");
         }
@@ -244,6 +278,9 @@ class SubjectPanel extends JPanel {
 
         subjectTable = new JTable(tableModel);
         subjectTable.setRowHeight(30);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Filter"));
+        filterPanel.add(RosterRowSorter.install(subjectTable, tableModel));
 
         JPanel buttonPanel = new JPanel();
         JButton addButton = new JButton("Add Subject");
@@ -256,6 +293,7 @@ class SubjectPanel extends JPanel {
         buttonPanel.add(removeButton);
         buttonPanel.setBackground(Color.blue);
 
+        add(filterPanel, BorderLayout.NORTH);
         add(new JScrollPane(subjectTable), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
     }
@@ -303,9 +341,9 @@ class SubjectPanel extends JPanel {
     }
 
     private void removeSelectedSubject() {
-        int row = subjectTable.getSelectedRow();
-        if (row != -1) {
-            tableModel.removeSubject(row);
+        int[] rows = RosterRowSorter.selectedModelRows(subjectTable);
+        if (rows.length > 0) {
+            tableModel.removeSubjects(rows);
         } else {
             JOptionPane.showMessageDialog(this, "Please select a subject to remove");
         }
@@ -324,6 +362,9 @@ class ClassroomPanel extends JPanel {
 
         classroomTable = new JTable(tableModel);
         classroomTable.setRowHeight(30);
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Filter"));
+        filterPanel.add(RosterRowSorter.install(classroomTable, tableModel));
 
         JPanel buttonPanel = new JPanel();
         JButton addButton = new JButton("Add Classroom");
@@ -336,6 +377,7 @@ class ClassroomPanel extends JPanel {
         buttonPanel.add(removeButton);
         buttonPanel.setBackground(Color.blue);
 
+        add(filterPanel, BorderLayout.NORTH);
         add(new JScrollPane(classroomTable), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
     }
@@ -383,9 +425,9 @@ class ClassroomPanel extends JPanel {
     }
 
     private void removeSelectedClassroom() {
-        int row = classroomTable.getSelectedRow();
-        if (row != -1) {
-            tableModel.removeClassroom(row);
+        int[] rows = RosterRowSorter.selectedModelRows(classroomTable);
+        if (rows.length > 0) {
+            tableModel.removeClassrooms(rows);
         } else {
             JOptionPane.showMessageDialog(this, "Please select a classroom to remove");
         }
@@ -395,48 +437,335 @@ class ClassroomPanel extends JPanel {
 // Generate Panel
 class GeneratePanel extends JPanel {
 
+    private static final long IMPROVEMENT_MOVES = 2_000_000;
+
+    // Days, periods and breaks from -Dtimetable.days etc.; see SchoolCalendar.configured
+    private final SchoolCalendar calendar = SchoolCalendar.configured();
+
     private JTable timetableTable;
-    private TimetableTableModel timetableModel = new TimetableTableModel(9); // 👈 FIXED
+    private TimetableTableModel timetableModel = new TimetableTableModel(calendar);
     private TeacherTableModel teacherModel;
     private SubjectTableModel subjectModel;
     private ClassroomTableModel classroomModel;
+    private JComboBox<SolverEngine> engineBox;
+    private JCheckBox portfolioBox;
+    private JCheckBox improveBox;
+    private JCheckBox balanceBox;
+    private JSpinner seedSpinner;
+    private JButton generateButton;
+    private JButton cancelButton;
+    private JButton exportButton;
+    private JProgressBar progressBar;
+
+    // Class view, or one teacher's or classroom's week
+    private JComboBox<TimetableTableModel.View> viewBox;
+    private JComboBox<String> resourceBox;
+    private List<?> resourceChoices = new ArrayList<>();
+    private boolean fillingResources;
+
+    // Generation in progress, or null when idle; the solver runs off the EDT
+    private SwingWorker<Timetable, Void> worker;
+    private SolveControl control;
+    private javax.swing.Timer progressTimer;
+
+    // Same inputs and seed give the same timetable, so repeats come from the cache;
+    // -Dtimetable.cacheDir=<dir> also keeps results on disk between sessions.
+    // Shared by every window in the JVM, so in-process sessions reuse each other's results
+    private static final TimetableCache cache = new TimetableCache(32,
+            System.getProperty("timetable.cacheDir") == null ? null
+                    : java.nio.file.Paths.get(System.getProperty("timetable.cacheDir")));
+
+    // Last generated timetable and the inputs it currently reflects
+    private Timetable timetable;
+    private List<Teacher> scheduledTeachers = new ArrayList<>();
+    private List<Subject> scheduledSubjects = new ArrayList<>();
+    private List<Classroom> scheduledClassrooms = new ArrayList<>();
+
+    // Where generated timetables are saved between sessions, or null
+    private final SchoolDataStore store;
 
     public GeneratePanel(TeacherTableModel tModel, SubjectTableModel sModel, ClassroomTableModel cModel) {
+        this(tModel, sModel, cModel, null);
+    }
+
+    public GeneratePanel(TeacherTableModel tModel, SubjectTableModel sModel, ClassroomTableModel cModel,
+                         SchoolDataStore store) {
         this.teacherModel = tModel;
         this.subjectModel = sModel;
         this.classroomModel = cModel;
+        this.store = store;
 
         setLayout(new BorderLayout());
 
         timetableTable = new JTable(timetableModel);
         timetableTable.setRowHeight(60);
+        timetableTable.setDefaultRenderer(TimetableTableModel.Cell.class, new TimetableCellRenderer());
+
+        JPanel viewPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        viewBox = new JComboBox<>(TimetableTableModel.View.values());
+        viewBox.addActionListener(e -> fillResources());
+        resourceBox = new JComboBox<>();
+        resourceBox.setPrototypeDisplayValue("XXXXXXXXXXXXXXXXXXXXXXXX");
+        resourceBox.setVisible(false);
+        resourceBox.addActionListener(e -> {
+            if (!fillingResources) showView();
+        });
+        viewPanel.add(new JLabel("View"));
+        viewPanel.add(viewBox);
+        viewPanel.add(resourceBox);
 
         JPanel buttonPanel = new JPanel();
-        JButton generateButton = new JButton("Generate Timetable");
+        engineBox = new JComboBox<>(SolverEngine.values());
+        portfolioBox = new JCheckBox("Portfolio (all cores)");
+        // The portfolio alternates both engines itself
+        portfolioBox.addActionListener(e -> engineBox.setEnabled(!portfolioBox.isSelected()));
+        improveBox = new JCheckBox("Improve");
+        balanceBox = new JCheckBox("Balance teachers");
+        seedSpinner = new JSpinner(new SpinnerNumberModel(1, 0, Integer.MAX_VALUE, 1));
+        generateButton = new JButton("Generate Timetable");
         generateButton.addActionListener(e -> generateTimetable());
-
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> control.cancel());
+        exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> exportTimetable());
+        progressBar = new JProgressBar();
+        progressBar.setStringPainted(true);
+        progressBar.setString("");
+        progressBar.setPreferredSize(new Dimension(320, 24));
+
+        buttonPanel.add(engineBox);
+        buttonPanel.add(portfolioBox);
+        buttonPanel.add(improveBox);
+        buttonPanel.add(balanceBox);
+        buttonPanel.add(new JLabel("Seed"));
+        buttonPanel.add(seedSpinner);
         buttonPanel.add(generateButton);
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(exportButton);
+        buttonPanel.add(progressBar);
         buttonPanel.setBackground(Color.blue);
 
+        add(viewPanel, BorderLayout.NORTH);
         add(new JScrollPane(timetableTable), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
+
+        // Keep the view's teacher and classroom lists current; Swing calls these
+        // after the repair listeners below
+        teacherModel.addTableModelListener(e -> fillResources());
+        classroomModel.addTableModelListener(e -> fillResources());
+
+        // Edits after generation repair the current timetable instead of regenerating it
+        teacherModel.addTableModelListener(e -> repairTimetable());
+        subjectModel.addTableModelListener(e -> repairTimetable());
+        classroomModel.addTableModelListener(e -> repairTimetable());
+
+        // Show the timetable saved in an earlier session, unless the week has changed shape since
+        Timetable saved = store != null ? store.getTimetable() : null;
+        if (saved != null && saved.getDays() == calendar.getDays()
+                && saved.getPeriodsPerDay() == calendar.getPeriodsPerDay()) {
+            timetable = saved;
+            rememberInputs();
+            showView();
+        }
     }
 
-    private void generateTimetable() {
+    private void repairTimetable() {
+        // Edits made during generation are applied once the new timetable arrives
+        if (timetable == null || worker != null) {
+            return;
+        }
         List<Teacher> teachers = teacherModel.getTeachers();
         List<Subject> subjects = subjectModel.getSubjects();
         List<Classroom> classrooms = classroomModel.getClassrooms();
 
+        List<ScheduleChange> changes = new ArrayList<>();
+        changes.addAll(ScheduleChange.diff(scheduledTeachers, teachers,
+                ScheduleChange::teacherAdded, ScheduleChange::teacherRemoved));
+        changes.addAll(ScheduleChange.diff(scheduledSubjects, subjects,
+                ScheduleChange::subjectAdded, ScheduleChange::subjectRemoved));
+        changes.addAll(ScheduleChange.diff(scheduledClassrooms, classrooms,
+                ScheduleChange::classroomAdded, ScheduleChange::classroomRemoved));
+
+        TimetableRepairer repairer = new TimetableRepairer(new TimetableGenerator(calendar));
+        for (ScheduleChange change : changes) {
+            repairer.repair(timetable, change, teachers, subjects, classrooms);
+        }
+        rememberInputs();
+        showView();
+        if (store != null) {
+            store.saveTimetable(timetable);
+        }
+    }
+
+    // Lists the teachers or classrooms for the chosen view, keeping the
+    // selection, and shows the result
+    private void fillResources() {
+        TimetableTableModel.View view = (TimetableTableModel.View) viewBox.getSelectedItem();
+        List<?> choices = view == TimetableTableModel.View.TEACHER ? teacherModel.getTeachers()
+                : view == TimetableTableModel.View.CLASSROOM ? classroomModel.getClassrooms()
+                : Collections.emptyList();
+        Object selected = resourceBox.getSelectedIndex() >= 0 && resourceBox.getSelectedIndex() < resourceChoices.size()
+                ? resourceChoices.get(resourceBox.getSelectedIndex()) : null;
+        fillingResources = true;
+        try {
+            resourceChoices = new ArrayList<>(choices);
+            String[] names = new String[resourceChoices.size()];
+            for (int i = 0; i < names.length; i++) {
+                Object choice = resourceChoices.get(i);
+                names[i] = choice instanceof Teacher ? ((Teacher) choice).getName() : ((Classroom) choice).getClassRoom();
+            }
+            // One new model rather than an event per item
+            resourceBox.setModel(new DefaultComboBoxModel<>(names));
+            int index = resourceChoices.indexOf(selected);
+            resourceBox.setSelectedIndex(index >= 0 ? index : resourceChoices.isEmpty() ? -1 : 0);
+        } finally {
+            fillingResources = false;
+        }
+        resourceBox.setVisible(view != TimetableTableModel.View.CLASS);
+        revalidate();
+        showView();
+    }
+
+    // Shows the current timetable from the chosen view; O(slots) per switch
+    private void showView() {
+        TimetableTableModel.View view = (TimetableTableModel.View) viewBox.getSelectedItem();
+        int index = resourceBox.getSelectedIndex();
+        if (timetable == null || view == TimetableTableModel.View.CLASS
+                || index < 0 || index >= resourceChoices.size()) {
+            timetableModel.setTimetable(view == TimetableTableModel.View.CLASS ? timetable : null);
+            return;
+        }
+        Object resource = resourceChoices.get(index);
+        TimetableEntry[] week = resource instanceof Teacher
+                ? timetable.getTeacherWeek((Teacher) resource)
+                : timetable.getClassroomWeek((Classroom) resource);
+        timetableModel.setWeek(week, timetable.getPeriodsPerDay(), view);
+    }
+
+    // Saves the current timetable as CSV, JSON or iCalendar, chosen by file type
+    private void exportTimetable() {
+        if (timetable == null) {
+            JOptionPane.showMessageDialog(this, "Generate a timetable first");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setAcceptAllFileFilterUsed(false);
+        for (TimetableExporter.Format format : TimetableExporter.Format.values()) {
+            chooser.addChoosableFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+                    format.name() + " (*." + format.extension + ")", format.extension));
+        }
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        String extension = ((javax.swing.filechooser.FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0];
+        java.io.File file = chooser.getSelectedFile();
+        if (!file.getName().toLowerCase().endsWith("." + extension)) {
+            file = new java.io.File(file.getParentFile(), file.getName() + "." + extension);
+        }
+        TimetableExporter exporter = new TimetableExporter(TimetableExporter.Format.parse(extension));
+        try (java.io.OutputStream out = java.nio.file.Files.newOutputStream(file.toPath())) {
+            exporter.export("Class", timetable, out);
+        } catch (java.io.IOException e) {
+            JOptionPane.showMessageDialog(this, "Could not export the timetable: " + e.getMessage());
+        }
+    }
+
+    private void rememberInputs() {
+        scheduledTeachers = new ArrayList<>(teacherModel.getTeachers());
+        scheduledSubjects = new ArrayList<>(subjectModel.getSubjects());
+        scheduledClassrooms = new ArrayList<>(classroomModel.getClassrooms());
+    }
+
+    private void generateTimetable() {
+        // Snapshot the inputs: the worker must not see edits made while it runs
+        List<Teacher> teachers = new ArrayList<>(teacherModel.getTeachers());
+        List<Subject> subjects = new ArrayList<>(subjectModel.getSubjects());
+        List<Classroom> classrooms = new ArrayList<>(classroomModel.getClassrooms());
+
         if (teachers.isEmpty() || subjects.isEmpty() || classrooms.isEmpty()) {
             JOptionPane.showMessageDialog(this,
                     "Please add at least one teacher, subject and classroom first");
             return;
         }
 
-        TimetableGenerator generator = new TimetableGenerator(9); 
-        Timetable timetable = generator.generateTimetable(teachers, subjects, classrooms);
+        boolean portfolio = portfolioBox.isSelected();
+        boolean improve = improveBox.isSelected();
+        boolean balance = balanceBox.isSelected();
+        SolverEngine engine = (SolverEngine) engineBox.getSelectedItem();
+        long seed = ((Number) seedSpinner.getValue()).longValue();
+        int requiredPeriods = new TimetableGenerator(calendar).countRequiredPeriods(subjects);
+        long started = System.nanoTime();
+        SolveControl runControl = SolveControl.unlimited();
+
+        control = runControl;
+        worker = new SwingWorker<>() {
+            @Override
+            protected Timetable doInBackground() {
+                if (portfolio) {
+                    PortfolioSolver solver = new PortfolioSolver(calendar);
+                    solver.setSeed(seed);
+                    solver.setBalanceTeacherLoad(balance);
+                    solver.setImprovementMoves(improve ? IMPROVEMENT_MOVES : 0);
+                    solver.setControl(runControl);
+                    return solver.solve(teachers, subjects, classrooms).getTimetable();
+                }
+                TimetableGenerator generator = new TimetableGenerator(calendar, engine);
+                generator.setSeed(seed);
+                generator.setControl(runControl);
+                generator.setBalanceTeacherLoad(balance);
+                if (improve) {
+                    generator.setImprovementMoves(IMPROVEMENT_MOVES);
+                }
+                return cache.generate(generator, teachers, subjects, classrooms);
+            }
+
+            @Override
+            protected void done() {
+                progressTimer.stop();
+                worker = null;
+                setRunning(false);
+                try {
+                    Timetable result = get();
+                    String outcome = runControl.isStopped() ? "Cancelled" : "Done";
+                    showProgress(outcome + ": ", result.getEntryCount(), requiredPeriods, started, runControl);
+
+                    // Cancelled runs still publish the best partial timetable
+                    timetable = result;
+                    scheduledTeachers = teachers;
+                    scheduledSubjects = subjects;
+                    scheduledClassrooms = classrooms;
+                    repairTimetable();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (java.util.concurrent.ExecutionException e) {
+                    progressBar.setString("Failed");
+                    JOptionPane.showMessageDialog(GeneratePanel.this,
+                            "Timetable generation failed: " + e.getCause().getMessage());
+                }
+            }
+        };
+
+        progressBar.setMaximum(requiredPeriods);
+        progressTimer = new javax.swing.Timer(100, e ->
+                showProgress("", runControl.getPlacedPeriods(), requiredPeriods, started, runControl));
+        setRunning(true);
+        progressTimer.start();
+        worker.execute();
+    }
+
+    private void setRunning(boolean running) {
+        generateButton.setEnabled(!running);
+        cancelButton.setEnabled(running);
+    }
 
-        timetableModel.setTimetable(timetable);
+    // Periods placed, elapsed time and the best improvement score reported so far
+    private void showProgress(String prefix, int placed, int required, long started, SolveControl runControl) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        long score = runControl.getBestScore();
+        progressBar.setValue(placed);
+        progressBar.setString(String.format("%s%d/%d periods, %.1f s%s", prefix, placed, required, seconds,
+                score == Long.MAX_VALUE ? "" : ", best score " + score));
     }
 }
 
@@ -518,12 +847,44 @@ class Classroom {
     }
 }
 
+class ClassGroup {
+
+    private String name;
+    private List<Subject> subjects;
+
+    public ClassGroup(String name, List<Subject> subjects) {
+        this.name = name;
+        this.subjects = new ArrayList<>(subjects);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<Subject> getSubjects() {
+        return subjects;
+    }
+}
+
+// Days a week may use, from the first; SchoolCalendar decides how many
 enum DayOfWeek {
-    MONDAY, TUESDAY, WEDNESDAY, THURSDAY, FRIDAY
+    MONDAY, TUESDAY, WEDNESDAY, THURSDAY, FRIDAY, SATURDAY, SUNDAY
 }
 
 class Timeslot {
 
+    // Flyweight cache so hot paths can look up a slot without allocating
+    private static final int MAX_CACHED_PERIOD = 16;
+    private static final Timeslot[][] CACHE = new Timeslot[DayOfWeek.values().length][MAX_CACHED_PERIOD + 1];
+
+    static {
+        for (DayOfWeek day : DayOfWeek.values()) {
+            for (int period = 1; period <= MAX_CACHED_PERIOD; period++) {
+                CACHE[day.ordinal()][period] = new Timeslot(day, period);
+            }
+        }
+    }
+
     private DayOfWeek day;
     private int period;
 
@@ -532,6 +893,13 @@ class Timeslot {
         this.period = period;
     }
 
+    public static Timeslot of(DayOfWeek day, int period) {
+        if (period >= 1 && period <= MAX_CACHED_PERIOD) {
+            return CACHE[day.ordinal()][period];
+        }
+        return new Timeslot(day, period);
+    }
+
     public DayOfWeek getDay() {
         return day;
     }
@@ -591,404 +959,1786 @@ class TimetableEntry {
 
 class Timetable {
 
-    private Map<Timeslot, TimetableEntry> entries = new HashMap<>();
-
-    public void addEntry(Teacher teacher, Classroom classroom, Timeslot slot, Subject subject) {
-        entries.put(slot, new TimetableEntry(teacher, classroom, slot, subject));
-    }
+    private static final int DEFAULT_PERIODS_PER_DAY = 9;
 
-    public TimetableEntry getEntry(Timeslot slot) {
-        return entries.get(slot);
-    }
+    private final int days;
+    private final int periodsPerDay;
+    private final int slotCount;
 
-    public boolean isTeacherAvailable(Teacher teacher, Timeslot slot) {
-        return entries.values().stream()
-                .noneMatch(e -> e.getTeacher().equals(teacher) && e.getTimeslot().equals(slot));
-    }
+    // Dense slot storage indexed by day * periodsPerDay + (period - 1)
+    private final TimetableEntry[] entries;
+    private final int[] teacherIds;
+    private final int[] classroomIds;
+    private final int[] subjectIds;
+    private final Timeslot[] timeslots;
+    private int entryCount;
 
-    public boolean isClassroomAvailable(Classroom classroom, Timeslot slot) {
-        return entries.values().stream()
-                .noneMatch(e -> e.getClassroom().equals(classroom) && e.getTimeslot().equals(slot));
-    }
-}
+    // Teacher and classroom occupancy, shared by every section of a school
+    private final ResourceOccupancy occupancy;
 
+    // Subjects are keyed by name to match the generator's rules
+    private final Map<String, Integer> subjectIndex = new HashMap<>();
+    private final List<Subject> subjectsById = new ArrayList<>();
 
+    // Secondary indexes: each teacher's and classroom's entries by slot, indexed
+    // by occupancy ID and kept in step with put/remove, so one resource's week is
+    // read in O(slots) however many entries the timetable has. Rows are created
+    // on a resource's first entry.
+    private TimetableEntry[][] teacherEntries = new TimetableEntry[0][];
+    private TimetableEntry[][] classroomEntries = new TimetableEntry[0][];
 
-// Table Models
-class TeacherTableModel extends AbstractTableModel {
+    public Timetable() {
+        this(DEFAULT_PERIODS_PER_DAY);
+    }
 
-    private List<Teacher> teachers = new ArrayList<>();
-    private String[] columns = {"Name", "Subjects", "Max Period/Day"};
+    // A standard five-day week
+    public Timetable(int periodsPerDay) {
+        this(SchoolCalendar.DEFAULT_DAYS, periodsPerDay);
+    }
 
-    public void addTeacher(Teacher teacher) {
-        teachers.add(teacher);
-        fireTableRowsInserted(teachers.size() - 1, teachers.size() - 1);
+    public Timetable(int days, int periodsPerDay) {
+        this(periodsPerDay, new ResourceOccupancy(days, periodsPerDay));
     }
 
-    public void removeTeacher(int row) {
-        teachers.remove(row);
-        fireTableRowsDeleted(row, row);
+    public Timetable(SchoolCalendar calendar) {
+        this(calendar.getDays(), calendar.getPeriodsPerDay());
     }
 
-    public List<Teacher> getTeachers() {
-        return teachers;
+    // The week has as many days as the occupancy
+    public Timetable(int periodsPerDay, ResourceOccupancy occupancy) {
+        if (occupancy.getPeriodsPerDay() != periodsPerDay) {
+            throw new IllegalArgumentException("Occupancy has " + occupancy.getPeriodsPerDay()
+                    + " periods a day but timetable needs " + periodsPerDay);
+        }
+        this.days = occupancy.getDays();
+        this.periodsPerDay = periodsPerDay;
+        this.slotCount = days * periodsPerDay;
+        this.occupancy = occupancy;
+        this.entries = new TimetableEntry[slotCount];
+        this.teacherIds = new int[slotCount];
+        this.classroomIds = new int[slotCount];
+        this.subjectIds = new int[slotCount];
+        this.timeslots = new Timeslot[slotCount];
+        Arrays.fill(teacherIds, -1);
+        Arrays.fill(classroomIds, -1);
+        Arrays.fill(subjectIds, -1);
+        for (int day = 0; day < days; day++) {
+            for (int period = 1; period <= periodsPerDay; period++) {
+                timeslots[slotIndex(day, period)] = Timeslot.of(DayOfWeek.values()[day], period);
+            }
+        }
     }
 
-    @Override
-    public int getRowCount() {
-        return teachers.size();
+    // Timetable whose teacher, classroom and subject IDs match the compiled instance;
+    // the occupancy must have been created from the same instance
+    public Timetable(ProblemInstance instance, ResourceOccupancy occupancy) {
+        this(instance.getPeriodsPerDay(), occupancy);
+        for (int subject = 0; subject < instance.getSubjectCount(); subject++) {
+            subjectId(instance.getSubject(subject));
+        }
     }
 
-    @Override
-    public int getColumnCount() {
-        return columns.length;
+    public void addEntry(Teacher teacher, Classroom classroom, Timeslot slot, Subject subject) {
+        int index = slotIndex(slot);
+        put(index, occupancy.teacherId(teacher), occupancy.classroomId(classroom), subjectId(subject),
+                new TimetableEntry(teacher, classroom, timeslots[index], subject));
     }
 
-    @Override
-    public String getColumnName(int column) {
-        return columns[column];
+    // Primitive variant for solvers working on a ProblemInstance
+    public void addEntry(int index, int teacherId, int classroomId, int subjectId) {
+        put(index, teacherId, classroomId, subjectId, new TimetableEntry(occupancy.getTeacher(teacherId),
+                occupancy.getClassroom(classroomId), timeslots[index], subjectsById.get(subjectId)));
     }
 
-    @Override
-    public Object getValueAt(int row, int column) {
-        Teacher teacher = teachers.get(row);
-        switch (column) {
-            case 0:
-                return teacher.getName();
-            case 1:
-                return String.join(", ", teacher.getSubjects());
-            case 2:
-                return teacher.getMaxPeriodPerDay();
-            default:
-                return null;
+    private void put(int index, int teacherId, int classroomId, int subjectId, TimetableEntry entry) {
+        if (entries[index] != null) {
+            occupancy.release(teacherIds[index], classroomIds[index], index);
+            teacherEntries[teacherIds[index]][index] = null;
+            classroomEntries[classroomIds[index]][index] = null;
+        } else {
+            entryCount++;
+        }
+        entries[index] = entry;
+        teacherIds[index] = teacherId;
+        classroomIds[index] = classroomId;
+        subjectIds[index] = subjectId;
+        occupancy.occupy(teacherId, classroomId, index);
+        teacherEntries = indexRow(teacherEntries, teacherId);
+        teacherEntries[teacherId][index] = entry;
+        classroomEntries = indexRow(classroomEntries, classroomId);
+        classroomEntries[classroomId][index] = entry;
+    }
+
+    // Grows the index to cover the ID and creates its row if needed
+    private TimetableEntry[][] indexRow(TimetableEntry[][] index, int id) {
+        if (id >= index.length) {
+            index = Arrays.copyOf(index, Math.max(id + 1, index.length * 2));
         }
+        if (index[id] == null) {
+            index[id] = new TimetableEntry[slotCount];
+        }
+        return index;
     }
-}
 
-class SubjectTableModel extends AbstractTableModel {
+    public TimetableEntry removeEntry(Timeslot slot) {
+        return removeEntryAt(slotIndex(slot));
+    }
 
-    private List<Subject> subjects = new ArrayList<>();
-    private String[] columns = {"Name", "Weekly Period", "Requires Lab"};
+    public TimetableEntry removeEntryAt(int index) {
+        TimetableEntry removed = entries[index];
+        if (removed != null) {
+            occupancy.release(teacherIds[index], classroomIds[index], index);
+            teacherEntries[teacherIds[index]][index] = null;
+            classroomEntries[classroomIds[index]][index] = null;
+            entries[index] = null;
+            teacherIds[index] = -1;
+            classroomIds[index] = -1;
+            subjectIds[index] = -1;
+            entryCount--;
+        }
+        return removed;
+    }
 
-    public void addSubject(Subject subject) {
-        subjects.add(subject);
-        fireTableRowsInserted(subjects.size() - 1, subjects.size() - 1);
+    public TimetableEntry getEntry(Timeslot slot) {
+        return entries[slotIndex(slot)];
     }
 
-    public void removeSubject(int row) {
-        subjects.remove(row);
-        fireTableRowsDeleted(row, row);
+    public TimetableEntry getEntry(int dayIndex, int period) {
+        return entries[slotIndex(dayIndex, period)];
     }
 
-    public List<Subject> getSubjects() {
-        return subjects;
+    public TimetableEntry getEntryAt(int index) {
+        return entries[index];
     }
 
-    @Override
-    public int getRowCount() {
-        return subjects.size();
+    public boolean isSlotEmpty(int index) {
+        return entries[index] == null;
     }
 
-    @Override
-    public int getColumnCount() {
-        return columns.length;
+    // One teacher's entries by slot index, null where the teacher is free here
+    public TimetableEntry[] getTeacherWeek(Teacher teacher) {
+        return week(teacherEntries, occupancy.findTeacherId(teacher));
     }
 
-    @Override
-    public String getColumnName(int column) {
-        return columns[column];
+    // One classroom's entries by slot index, null where the room is free here
+    public TimetableEntry[] getClassroomWeek(Classroom classroom) {
+        return week(classroomEntries, occupancy.findClassroomId(classroom));
     }
 
-    @Override
-    public Object getValueAt(int row, int column) {
-        Subject subject = subjects.get(row);
-        switch (column) {
-            case 0:
-                return subject.getName();
-            case 1:
-                return subject.getWeeklyPeriod();
-            case 2:
-                return subject.requiresLab() ? "Yes" : "No";
-            default:
-                return null;
+    private TimetableEntry[] week(TimetableEntry[][] index, int id) {
+        if (id < 0 || id >= index.length || index[id] == null) {
+            return new TimetableEntry[slotCount];
         }
+        return index[id].clone();
     }
-}
 
-class ClassroomTableModel extends AbstractTableModel {
-
-    private List<Classroom> classrooms = new ArrayList<>();
-    private String[] columns = {"Class Room", "Is Lab", "Capacity"};
-
-    public void addClassroom(Classroom classroom) {
-        classrooms.add(classroom);
-        fireTableRowsInserted(classrooms.size() - 1, classrooms.size() - 1);
+    // Number of occupied slots, i.e. periods placed
+    public int getEntryCount() {
+        return entryCount;
     }
 
-    public void removeClassroom(int row) {
-        classrooms.remove(row);
-        fireTableRowsDeleted(row, row);
+    public boolean isTeacherAvailable(Teacher teacher, Timeslot slot) {
+        return occupancy.isTeacherFree(teacher, slotIndex(slot));
     }
 
-    public List<Classroom> getClassrooms() {
-        return classrooms;
+    public boolean isClassroomAvailable(Classroom classroom, Timeslot slot) {
+        return occupancy.isClassroomFree(classroom, slotIndex(slot));
     }
 
-    @Override
-    public int getRowCount() {
-        return classrooms.size();
+    public boolean isSubjectScheduledOnDay(Subject subject, int dayIndex) {
+        Integer id = subjectIndex.get(subject.getName());
+        return id != null && isSubjectScheduledOnDay(id, dayIndex);
     }
 
-    @Override
-    public int getColumnCount() {
-        return columns.length;
+    public boolean isSubjectScheduledOnDay(int id, int dayIndex) {
+        int start = dayIndex * periodsPerDay;
+        for (int index = start; index < start + periodsPerDay; index++) {
+            if (subjectIds[index] == id) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    @Override
-    public String getColumnName(int column) {
-        return columns[column];
+    public int getDays() {
+        return days;
     }
 
-    @Override
-    public Object getValueAt(int row, int column) {
-        Classroom classroom = classrooms.get(row);
-        switch (column) {
-            case 0:
-                return classroom.getClassRoom();
-            case 1:
-                return classroom.isLab() ? "Yes" : "No";
-            case 2:
-                return classroom.getCapacity();
-            default:
-                return null;
-        }
+    public int getPeriodsPerDay() {
+        return periodsPerDay;
     }
-}
-
-class TimetableTableModel extends AbstractTableModel {
 
-    private Timetable timetable;
-    private String[] days = {"Monday", "Tuesday", "Wednesday", "Thursday", "Friday"};
-    private int periodsPerDay;
-    private String[] periods;
+    public ResourceOccupancy getOccupancy() {
+        return occupancy;
+    }
 
+    public int getSlotCount() {
+        return slotCount;
+    }
 
-    public TimetableTableModel(int periodsPerDay) {
-        this.periodsPerDay = periodsPerDay;
-        this.periods = new String[]{
-                "8.00 - 8.40",
-                "8.40 - 9.20",
-                "9.20 - 10.00",
-                "10.00 - 10.40",
-                "BREAK",
-                "11.00 - 11.40",
-                "11.40 - 12.20",
-                "12.20 - 13.00",
-                "13.00 - 13.40"
-        };
+    public Timeslot getTimeslot(int index) {
+        return timeslots[index];
     }
 
-    public void setTimetable(Timetable timetable) {
-        this.timetable = timetable;
-        fireTableDataChanged();
+    public int getTeacherIdAt(int index) {
+        return teacherIds[index];
     }
 
-    @Override
-    public int getRowCount() {
-        return periodsPerDay;
+    public int getClassroomIdAt(int index) {
+        return classroomIds[index];
     }
 
-    @Override
-    public int getColumnCount() {
-        return days.length + 1;
+    public int getSubjectIdAt(int index) {
+        return subjectIds[index];
     }
 
-    @Override
-    public String getColumnName(int column) {
-        return column == 0 ? "Time" : days[column - 1];
+    public int slotIndex(int dayIndex, int period) {
+        return dayIndex * periodsPerDay + period - 1;
     }
 
-    @Override
-    public Object getValueAt(int row, int column) {
-        if (column == 0) return periods[row];  // ✅ show actual time
+    private int slotIndex(Timeslot slot) {
+        return slotIndex(slot.getDay().ordinal(), slot.getPeriod());
+    }
 
-        if (timetable == null) return "";
-        Timeslot slot = new Timeslot(DayOfWeek.values()[column - 1], row + 1);
-        TimetableEntry entry = timetable.getEntry(slot);
-        return entry != null
-                ? String.format("<html>%s<br>%s<br>%s</html>",
-                entry.getSubject().getName(),
-                entry.getTeacher().getName(),
-                entry.getClassroom().getClassRoom())
-                : "";
+    private int subjectId(Subject subject) {
+        return subjectIndex.computeIfAbsent(subject.getName(), name -> {
+            subjectsById.add(subject);
+            return subjectsById.size() - 1;
+        });
     }
 }
 
+// Teacher and classroom bookings for one school week, keyed by primitive IDs.
+// Every section's Timetable points at the same instance so cross-section
+// clashes are a single bit test. Per-teacher load counters are updated on every
+// booking, so Teacher.maxPeriodPerDay is checked without scanning timetables.
+class ResourceOccupancy {
 
+    private final int slotCount;
+    private final int days;
+    private final int periodsPerDay;
 
-// Timetable Generator Algorithm
-
-class TimetableGenerator {
+    private final Map<Teacher, Integer> teacherIndex = new HashMap<>();
+    private final Map<Classroom, Integer> classroomIndex = new HashMap<>();
+    private final List<Teacher> teachers = new ArrayList<>();
+    private final List<Classroom> classrooms = new ArrayList<>();
 
-    private int periodsPerDay;
-    private final int daysPerWeek = 5; // Monday-Friday
-    private final int breakPeriod = 5; // optional lunch break
+    // One bitset per teacher/classroom ID, one bit per slot
+    private final List<BitSet> teacherSlots = new ArrayList<>();
+    private final List<BitSet> classroomSlots = new ArrayList<>();
 
-    private final Set<String> doublePeriodSubjects = Set.of("Combined Maths", "Biology", "Physics", "Chemistry");
+    // Per teacher: periods booked on each day, then the week total
+    private final List<int[]> teacherLoad = new ArrayList<>();
+    private final List<Integer> teacherDailyLimit = new ArrayList<>();
 
-    public TimetableGenerator(int periodsPerDay) {
+    public ResourceOccupancy(int days, int periodsPerDay) {
+        this.slotCount = days * periodsPerDay;
+        this.days = days;
         this.periodsPerDay = periodsPerDay;
     }
 
-    public Timetable generateTimetable(List<Teacher> teachers, List<Subject> subjects, List<Classroom> classrooms) {
-        Timetable timetable = new Timetable();
-        Random random = new Random();
-
-        // Step 1: Create possible 2-period blocks
-        List<Timeslot[]> doublePeriodBlocks = new ArrayList<>();
-        for (DayOfWeek day : DayOfWeek.values()) {
-            for (int period : new int[]{1, 2, 3, 6, 7}) { // only morning-friendly start periods
-                if (period == breakPeriod || period + 1 == breakPeriod) continue;
-                Timeslot slot1 = new Timeslot(day, period);
-                Timeslot slot2 = new Timeslot(day, period + 1);
-                doublePeriodBlocks.add(new Timeslot[]{slot1, slot2});
-            }
+    // Registers the instance's teachers and classrooms up front so IDs match the instance
+    public ResourceOccupancy(ProblemInstance instance) {
+        this(instance.getDays(), instance.getPeriodsPerDay());
+        for (int teacher = 0; teacher < instance.getTeacherCount(); teacher++) {
+            teacherId(instance.getTeacher(teacher));
+        }
+        for (int classroom = 0; classroom < instance.getClassroomCount(); classroom++) {
+            classroomId(instance.getClassroom(classroom));
         }
+    }
 
-        // Step 2: Schedule subjects based on weeklyPeriod
-        for (Subject subject : subjects) {
-            if (subject.getName().equals("English") || subject.getName().equals("Git")) continue; // skip special subjects
-            
-            int periodsNeeded = subject.getWeeklyPeriod();
-            boolean isDoublePeriodSubject = doublePeriodSubjects.contains(subject.getName());
+    public int getSlotCount() {
+        return slotCount;
+    }
 
-            List<Teacher> qualifiedTeachers = teachers.stream()
-                    .filter(t -> t.getSubjects().contains(subject.getName()))
-                    .collect(Collectors.toList());
+    public int getDays() {
+        return days;
+    }
 
-            List<Classroom> suitableRooms = classrooms.stream()
-                    .filter(r -> !subject.requiresLab() || r.isLab())
-                    .collect(Collectors.toList());
+    public int getPeriodsPerDay() {
+        return periodsPerDay;
+    }
 
-            int periodsScheduled = 0;
+    public int teacherId(Teacher teacher) {
+        return teacherIndex.computeIfAbsent(teacher, t -> {
+            teachers.add(t);
+            teacherSlots.add(new BitSet(slotCount));
+            teacherLoad.add(new int[days + 1]);
+            // A limit of 0 or less means the teacher has no daily limit
+            teacherDailyLimit.add(t.getMaxPeriodPerDay() > 0 ? t.getMaxPeriodPerDay() : Integer.MAX_VALUE);
+            return teacherSlots.size() - 1;
+        });
+    }
 
-            if (isDoublePeriodSubject) {
-                // Schedule in 2-period blocks
-                int blocksNeeded = (int) Math.ceil(periodsNeeded / 2.0);
-                while (periodsScheduled < blocksNeeded) {
-                    boolean scheduled = false;
-                    Collections.shuffle(doublePeriodBlocks);
-                    Collections.shuffle(qualifiedTeachers);
-                    Collections.shuffle(suitableRooms);
-
-                    outerLoop:
-                    for (Timeslot[] block : doublePeriodBlocks) {
-                        for (Teacher teacher : qualifiedTeachers) {
-                            for (Classroom room : suitableRooms) {
-                                if (timetable.getEntry(block[0]) == null
-                                        && timetable.getEntry(block[1]) == null
-                                        && timetable.isTeacherAvailable(teacher, block[0])
-                                        && timetable.isTeacherAvailable(teacher, block[1])
-                                        && timetable.isClassroomAvailable(room, block[0])
-                                        && timetable.isClassroomAvailable(room, block[1])
-                                        && !isSubjectAlreadyScheduledOnDay(timetable, subject, block[0].getDay())) {
-
-                                    timetable.addEntry(teacher, room, block[0], subject);
-                                    timetable.addEntry(teacher, room, block[1], subject);
-
-                                    periodsScheduled++;
-                                    scheduled = true;
-                                    break outerLoop;
-                                }
-                            }
-                        }
-                    }
+    public int classroomId(Classroom classroom) {
+        return classroomIndex.computeIfAbsent(classroom, c -> {
+            classrooms.add(c);
+            classroomSlots.add(new BitSet(slotCount));
+            return classroomSlots.size() - 1;
+        });
+    }
 
-                    if (!scheduled) {
-                        System.out.println("Could not schedule all periods for: " + subject.getName());
-                        break;
-                    }
-                }
+    // ID of a teacher seen before, or -1; unlike teacherId() this never registers one
+    public int findTeacherId(Teacher teacher) {
+        Integer id = teacherIndex.get(teacher);
+        return id != null ? id : -1;
+    }
 
-            } else {
-                // Schedule in single periods
-                outerLoop:
-                for (DayOfWeek day : DayOfWeek.values()) {
-                    for (int period = 1; period <= periodsPerDay; period++) {
-                        if (period == breakPeriod) continue; // skip break
-                        Timeslot slot = new Timeslot(day, period);
-
-                        for (Teacher teacher : qualifiedTeachers) {
-                            for (Classroom room : suitableRooms) {
-                                if (timetable.getEntry(slot) == null
-                                        && timetable.isTeacherAvailable(teacher, slot)
-                                        && timetable.isClassroomAvailable(room, slot)
-                                        && !isSubjectAlreadyScheduledOnDay(timetable, subject, day)) {
-
-                                    timetable.addEntry(teacher, room, slot, subject);
-                                    periodsScheduled++;
-                                    if (periodsScheduled >= periodsNeeded) break outerLoop;
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-        }
-// Step 3: Schedule English and Git in last 2 periods
-        List<String> specialSubjects = List.of("English", "Git");
+    public int findClassroomId(Classroom classroom) {
+        Integer id = classroomIndex.get(classroom);
+        return id != null ? id : -1;
+    }
 
-        for (String subName : specialSubjects) {
-            Subject subject = subjects.stream()
-                    .filter(s -> s.getName().equals(subName))
-                    .findFirst()
-                    .orElse(null);
-            if (subject == null) continue;
+    public Teacher getTeacher(int teacherId) {
+        return teachers.get(teacherId);
+    }
 
-            List<Teacher> qualifiedTeachers = teachers.stream()
-                    .filter(t -> t.getSubjects().contains(subject.getName()))
-                    .collect(Collectors.toList());
+    public Classroom getClassroom(int classroomId) {
+        return classrooms.get(classroomId);
+    }
 
-            List<Classroom> suitableRooms = classrooms.stream()
-                    .filter(r -> !subject.requiresLab() || r.isLab())
-                    .collect(Collectors.toList());
+    public boolean isTeacherFree(Teacher teacher, int slot) {
+        Integer id = teacherIndex.get(teacher);
+        return id == null || !teacherSlots.get(id).get(slot);
+    }
 
-            List<DayOfWeek> days = new ArrayList<>(Arrays.asList(DayOfWeek.values()));
-            Collections.shuffle(days);
+    public boolean isClassroomFree(Classroom classroom, int slot) {
+        Integer id = classroomIndex.get(classroom);
+        return id == null || !classroomSlots.get(id).get(slot);
+    }
 
-            for (DayOfWeek day : days) {
-                int period = (subName.equals("English")) ? periodsPerDay - 1 : periodsPerDay; // English: 2nd last, Git: last
-                Timeslot slot = new Timeslot(day, period);
+    public boolean isTeacherFree(int teacherId, int slot) {
+        return !teacherSlots.get(teacherId).get(slot);
+    }
 
-                Collections.shuffle(qualifiedTeachers);
-                Collections.shuffle(suitableRooms);
+    public boolean isClassroomFree(int classroomId, int slot) {
+        return !classroomSlots.get(classroomId).get(slot);
+    }
 
-                for (Teacher teacher : qualifiedTeachers) {
-                    for (Classroom room : suitableRooms) {
-                        if (timetable.getEntry(slot) == null
-                                && timetable.isTeacherAvailable(teacher, slot)
-                                && timetable.isClassroomAvailable(room, slot)) {
+    // Free for every slot of a lesson of `length` periods from `start`
+    public boolean isTeacherFree(int teacherId, int start, int length) {
+        int busy = teacherSlots.get(teacherId).nextSetBit(start);
+        return busy < 0 || busy >= start + length;
+    }
 
-                            timetable.addEntry(teacher, room, slot, subject);
-                            break;
-                        }
-                    }
-                }
-            }
-        }
+    public boolean isClassroomFree(int classroomId, int start, int length) {
+        int busy = classroomSlots.get(classroomId).nextSetBit(start);
+        return busy < 0 || busy >= start + length;
+    }
 
-        return timetable;
+    public int getTeacherDailyLimit(int teacherId) {
+        return teacherDailyLimit.get(teacherId);
     }
 
-    // Helper method to check if a subject is already scheduled on a given day
-    private boolean isSubjectAlreadyScheduledOnDay(Timetable timetable, Subject subject, DayOfWeek day) {
-        for (int period = 1; period <= periodsPerDay; period++) {
-            Timeslot slot = new Timeslot(day, period);
-            TimetableEntry entry = timetable.getEntry(slot);
-            if (entry != null && entry.getSubject().getName().equals(subject.getName())) {
-                return true;
+    public int getTeacherDayLoad(int teacherId, int day) {
+        return teacherLoad.get(teacherId)[day];
+    }
+
+    public int getTeacherWeekLoad(int teacherId) {
+        return teacherLoad.get(teacherId)[days];
+    }
+
+    // True if the teacher can take this many more periods on the slot's day
+    public boolean hasTeacherCapacity(int teacherId, int slot, int periods) {
+        return teacherLoad.get(teacherId)[slot / periodsPerDay] + periods <= teacherDailyLimit.get(teacherId);
+    }
+
+    public boolean hasTeacherCapacity(Teacher teacher, int slot, int periods) {
+        Integer id = teacherIndex.get(teacher);
+        return id == null
+                ? periods <= (teacher.getMaxPeriodPerDay() > 0 ? teacher.getMaxPeriodPerDay() : Integer.MAX_VALUE)
+                : hasTeacherCapacity(id, slot, periods);
+    }
+
+    public void occupy(int teacherId, int classroomId, int slot) {
+        teacherSlots.get(teacherId).set(slot);
+        classroomSlots.get(classroomId).set(slot);
+        int[] load = teacherLoad.get(teacherId);
+        load[slot / periodsPerDay]++;
+        load[days]++;
+    }
+
+    public void release(int teacherId, int classroomId, int slot) {
+        teacherSlots.get(teacherId).clear(slot);
+        classroomSlots.get(classroomId).clear(slot);
+        int[] load = teacherLoad.get(teacherId);
+        load[slot / periodsPerDay]--;
+        load[days]--;
+    }
+}
+
+// Timetables for every section of a school, sharing one ResourceOccupancy
+class SchoolTimetable {
+
+    private final int periodsPerDay;
+    private final ProblemInstance instance;
+    private final ResourceOccupancy occupancy;
+    private final Map<ClassGroup, Timetable> timetables = new LinkedHashMap<>();
+
+    // A standard five-day week
+    public SchoolTimetable(int periodsPerDay) {
+        this.periodsPerDay = periodsPerDay;
+        this.instance = null;
+        this.occupancy = new ResourceOccupancy(SchoolCalendar.DEFAULT_DAYS, periodsPerDay);
+    }
+
+    public SchoolTimetable(ProblemInstance instance) {
+        this.periodsPerDay = instance.getPeriodsPerDay();
+        this.instance = instance;
+        this.occupancy = new ResourceOccupancy(instance);
+    }
+
+    public Timetable addGroup(ClassGroup group) {
+        return timetables.computeIfAbsent(group, g -> instance != null
+                ? new Timetable(instance, occupancy)
+                : new Timetable(periodsPerDay, occupancy));
+    }
+
+    public Timetable getTimetable(ClassGroup group) {
+        return timetables.get(group);
+    }
+
+    public List<ClassGroup> getGroups() {
+        return new ArrayList<>(timetables.keySet());
+    }
+
+    public ResourceOccupancy getOccupancy() {
+        return occupancy;
+    }
+}
+
+
+
+// Table Models
+// Base for the teacher, subject and classroom tables. Each row's display
+// values and search text are built once when the row is added, and its sort
+// keys the first time the table is sorted, so painting, sorting and filtering
+// only read them. Bulk changes fire a single event however many rows they touch.
+abstract class RosterTableModel<T> extends AbstractTableModel {
+
+    private final String[] columns;
+    private final List<T> items = new ArrayList<>();
+    private final List<Row> rows = new ArrayList<>();
+    private final java.text.Collator collator = java.text.Collator.getInstance();
+
+    RosterTableModel(String... columns) {
+        this.columns = columns;
+    }
+
+    // Values shown in each column
+    protected abstract Object[] displayValues(T item);
+
+    // Hooks for indexes kept alongside the rows
+    protected void added(T item) {
+    }
+
+    protected void removed(T item) {
+    }
+
+    protected void add(T item) {
+        addAll(Collections.singletonList(item));
+    }
+
+    // Appends the items with one rows-inserted event
+    protected void addAll(Collection<? extends T> newItems) {
+        if (newItems.isEmpty()) {
+            return;
+        }
+        int first = items.size();
+        for (T item : newItems) {
+            items.add(item);
+            rows.add(new Row(displayValues(item)));
+            added(item);
+        }
+        fireTableRowsInserted(first, items.size() - 1);
+    }
+
+    protected void remove(int row) {
+        removeAll(new int[]{row});
+    }
+
+    // Removes the given model rows in one pass. A contiguous range fires one
+    // rows-deleted event; scattered rows fire one data-changed event.
+    protected void removeAll(int[] selected) {
+        int[] doomed = Arrays.stream(selected).distinct().sorted().toArray();
+        if (doomed.length == 0) {
+            return;
+        }
+        if (doomed[0] < 0 || doomed[doomed.length - 1] >= items.size()) {
+            throw new IndexOutOfBoundsException("Rows " + Arrays.toString(selected) + " out of " + items.size());
+        }
+        int next = 0;
+        int write = 0;
+        for (int read = 0; read < items.size(); read++) {
+            if (next < doomed.length && doomed[next] == read) {
+                removed(items.get(read));
+                next++;
+            } else {
+                items.set(write, items.get(read));
+                rows.set(write, rows.get(read));
+                write++;
+            }
+        }
+        items.subList(write, items.size()).clear();
+        rows.subList(write, rows.size()).clear();
+        int first = doomed[0];
+        int last = doomed[doomed.length - 1];
+        if (last - first + 1 == doomed.length) {
+            fireTableRowsDeleted(first, last);
+        } else {
+            fireTableDataChanged();
+        }
+    }
+
+    // The rows themselves; change them only through the model
+    protected List<T> items() {
+        return items;
+    }
+
+    @Override
+    public int getRowCount() {
+        return items.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        return rows.get(row).values[column];
+    }
+
+    // Comparable key for sorting by the column: a collation key for text,
+    // the value itself for numbers
+    public Comparable<?> getSortKey(int row, int column) {
+        return rows.get(row).keys()[column];
+    }
+
+    // Lower-case text of every column, for filtering
+    public String getSearchText(int row) {
+        return rows.get(row).searchText;
+    }
+
+    private final class Row {
+
+        final Object[] values;
+        final String searchText;
+        // Collation keys cost more than the rest of the row, so wait for a sort
+        private Comparable<?>[] keys;
+
+        Row(Object[] values) {
+            this.values = values;
+            StringBuilder text = new StringBuilder();
+            for (Object value : values) {
+                // A separator no one types, so a search cannot match across columns
+                text.append(String.valueOf(value).toLowerCase()).append('\u0000');
+            }
+            this.searchText = text.toString();
+        }
+
+        Comparable<?>[] keys() {
+            if (keys == null) {
+                Comparable<?>[] built = new Comparable<?>[values.length];
+                for (int column = 0; column < values.length; column++) {
+                    Object value = values[column];
+                    built[column] = value instanceof Integer ? (Integer) value
+                            : collator.getCollationKey(String.valueOf(value));
+                }
+                keys = built;
+            }
+            return keys;
+        }
+    }
+}
+
+// Sorts and filters a roster table on the keys the model built when each row
+// was added: comparisons never call getValueAt, format or collate, and the
+// filter is a substring test on prebuilt text.
+class RosterRowSorter<M extends RosterTableModel<?>> extends TableRowSorter<M> {
+
+    RosterRowSorter(M model) {
+        super(model);
+        setModelWrapper(new ModelWrapper<M, Integer>() {
+            @Override
+            public M getModel() {
+                return model;
+            }
+
+            @Override
+            public int getColumnCount() {
+                return model.getColumnCount();
+            }
+
+            @Override
+            public int getRowCount() {
+                return model.getRowCount();
+            }
+
+            @Override
+            public Object getValueAt(int row, int column) {
+                return model.getSortKey(row, column);
+            }
+
+            @Override
+            public Integer getIdentifier(int row) {
+                return row;
+            }
+        });
+        for (int column = 0; column < model.getColumnCount(); column++) {
+            setComparator(column, Comparator.naturalOrder());
+        }
+    }
+
+    // Shows only rows containing the text, ignoring case; empty shows all
+    public void setFilterText(String text) {
+        String query = text.trim().toLowerCase();
+        if (query.isEmpty()) {
+            setRowFilter(null);
+            return;
+        }
+        M model = getModel();
+        setRowFilter(new RowFilter<M, Integer>() {
+            @Override
+            public boolean include(Entry<? extends M, ? extends Integer> entry) {
+                return model.getSearchText(entry.getIdentifier()).contains(query);
+            }
+        });
+    }
+
+    // Sorting and a filter box for a roster table; returns the filter box
+    static JTextField install(JTable table, RosterTableModel<?> model) {
+        RosterRowSorter<RosterTableModel<?>> sorter = new RosterRowSorter<>(model);
+        table.setRowSorter(sorter);
+        JTextField filter = new JTextField(20);
+        filter.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                sorter.setFilterText(filter.getText());
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                sorter.setFilterText(filter.getText());
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                sorter.setFilterText(filter.getText());
+            }
+        });
+        return filter;
+    }
+
+    // Model rows of the table's selection, whatever the sort order
+    static int[] selectedModelRows(JTable table) {
+        int[] rows = table.getSelectedRows();
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = table.convertRowIndexToModel(rows[i]);
+        }
+        return rows;
+    }
+}
+
+class TeacherTableModel extends RosterTableModel<Teacher> {
+
+    // Subject name -> teachers of it, kept in step with the rows
+    private final Map<String, Set<Teacher>> teachersBySubject = new HashMap<>();
+
+    TeacherTableModel() {
+        super("Name", "Subjects", "Max Period/Day");
+    }
+
+    public void addTeacher(Teacher teacher) {
+        add(teacher);
+    }
+
+    public void addTeachers(Collection<Teacher> teachers) {
+        addAll(teachers);
+    }
+
+    public void removeTeacher(int row) {
+        remove(row);
+    }
+
+    public void removeTeachers(int[] rows) {
+        removeAll(rows);
+    }
+
+    public List<Teacher> getTeachers() {
+        return items();
+    }
+
+    // Teachers who teach the subject, in the order they were added
+    public Set<Teacher> getTeachersFor(String subject) {
+        Set<Teacher> teachers = teachersBySubject.get(subject);
+        return teachers != null ? Collections.unmodifiableSet(teachers) : Collections.emptySet();
+    }
+
+    public boolean isSubjectTaught(String subject) {
+        return teachersBySubject.containsKey(subject);
+    }
+
+    @Override
+    protected Object[] displayValues(Teacher teacher) {
+        return new Object[]{teacher.getName(), String.join(", ", teacher.getSubjects()), teacher.getMaxPeriodPerDay()};
+    }
+
+    @Override
+    protected void added(Teacher teacher) {
+        for (String subject : teacher.getSubjects()) {
+            teachersBySubject.computeIfAbsent(subject, s -> new LinkedHashSet<>()).add(teacher);
+        }
+    }
+
+    @Override
+    protected void removed(Teacher teacher) {
+        for (String subject : teacher.getSubjects()) {
+            Set<Teacher> teachers = teachersBySubject.get(subject);
+            if (teachers != null && teachers.remove(teacher) && teachers.isEmpty()) {
+                teachersBySubject.remove(subject);
+            }
+        }
+    }
+}
+
+class SubjectTableModel extends RosterTableModel<Subject> {
+
+    SubjectTableModel() {
+        super("Name", "Weekly Period", "Requires Lab");
+    }
+
+    public void addSubject(Subject subject) {
+        add(subject);
+    }
+
+    public void addSubjects(Collection<Subject> subjects) {
+        addAll(subjects);
+    }
+
+    public void removeSubject(int row) {
+        remove(row);
+    }
+
+    public void removeSubjects(int[] rows) {
+        removeAll(rows);
+    }
+
+    public List<Subject> getSubjects() {
+        return items();
+    }
+
+    @Override
+    protected Object[] displayValues(Subject subject) {
+        return new Object[]{subject.getName(), subject.getWeeklyPeriod(), subject.requiresLab() ? "Yes" : "No"};
+    }
+}
+
+class ClassroomTableModel extends RosterTableModel<Classroom> {
+
+    ClassroomTableModel() {
+        super("Class Room", "Is Lab", "Capacity");
+    }
+
+    public void addClassroom(Classroom classroom) {
+        add(classroom);
+    }
+
+    public void addClassrooms(Collection<Classroom> classrooms) {
+        addAll(classrooms);
+    }
+
+    public void removeClassroom(int row) {
+        remove(row);
+    }
+
+    public void removeClassrooms(int[] rows) {
+        removeAll(rows);
+    }
+
+    public List<Classroom> getClassrooms() {
+        return items();
+    }
+
+    @Override
+    protected Object[] displayValues(Classroom classroom) {
+        return new Object[]{classroom.getClassRoom(), classroom.isLab() ? "Yes" : "No", classroom.getCapacity()};
+    }
+}
+
+// Clock times of the periods, taken from the labels in the timetable's Time
+// column. A BREAK takes the gap between its neighbours, and periods past the
+// last label carry on at the length of the last one.
+final class PeriodTimes {
+
+    static final String[] LABELS = {
+            "8.00 - 8.40",
+            "8.40 - 9.20",
+            "9.20 - 10.00",
+            "10.00 - 10.40",
+            "BREAK",
+            "11.00 - 11.40",
+            "11.40 - 12.20",
+            "12.20 - 13.00",
+            "13.00 - 13.40"
+    };
+
+    private static final LocalTime[] STARTS = new LocalTime[LABELS.length];
+    private static final LocalTime[] ENDS = new LocalTime[LABELS.length];
+
+    static {
+        for (int i = 0; i < LABELS.length; i++) {
+            if (!isBreak(i + 1)) {
+                String[] times = LABELS[i].split("-");
+                STARTS[i] = parse(times[0]);
+                ENDS[i] = parse(times[1]);
+            }
+        }
+        for (int i = 0; i < LABELS.length; i++) {
+            if (isBreak(i + 1)) {
+                STARTS[i] = i > 0 ? ENDS[i - 1] : STARTS[i + 1];
+                ENDS[i] = i + 1 < LABELS.length ? STARTS[i + 1] : ENDS[i - 1];
+            }
+        }
+    }
+
+    private PeriodTimes() {
+    }
+
+    private static LocalTime parse(String time) {
+        String[] parts = time.trim().split("\\.");
+        return LocalTime.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    // Periods are numbered from 1
+    static String label(int period) {
+        if (period <= LABELS.length) {
+            return LABELS[period - 1];
+        }
+        return format(start(period)) + " - " + format(end(period));
+    }
+
+    // The Time column for a calendar: BREAK for its breaks and clock times for
+    // every other period, even one the labels above mark as a break
+    static String label(SchoolCalendar calendar, int period) {
+        if (calendar.isBreak(period)) {
+            return "BREAK";
+        }
+        return isBreak(period) ? format(start(period)) + " - " + format(end(period)) : label(period);
+    }
+
+    static boolean isBreak(int period) {
+        return period <= LABELS.length && "BREAK".equals(LABELS[period - 1]);
+    }
+
+    static LocalTime start(int period) {
+        if (period <= LABELS.length) {
+            return STARTS[period - 1];
+        }
+        return ENDS[LABELS.length - 1].plus(lastLength().multipliedBy(period - LABELS.length - 1));
+    }
+
+    static LocalTime end(int period) {
+        return period <= LABELS.length ? ENDS[period - 1] : start(period).plus(lastLength());
+    }
+
+    private static Duration lastLength() {
+        return Duration.between(STARTS[LABELS.length - 1], ENDS[LABELS.length - 1]);
+    }
+
+    private static String format(LocalTime time) {
+        return time.getHour() + "." + String.format("%02d", time.getMinute());
+    }
+}
+
+class TimetableTableModel extends AbstractTableModel {
+
+    // Whose week the grid shows; the lines under the subject change to match
+    enum View {
+        CLASS("Class"), TEACHER("Teacher"), CLASSROOM("Classroom");
+
+        private final String label;
+
+        View(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private String[] days;
+    private int periodsPerDay;
+    private String[] periods;
+
+    // Cell contents by row * days + day, built once per setTimetable so that
+    // painting only reads them; null for a free period
+    private Cell[] cells;
+
+
+    public TimetableTableModel(int periodsPerDay) {
+        this(SchoolCalendar.standard(periodsPerDay));
+    }
+
+    // One column per day of the calendar's week, one row per period
+    public TimetableTableModel(SchoolCalendar calendar) {
+        this.periodsPerDay = calendar.getPeriodsPerDay();
+        this.days = new String[calendar.getDays()];
+        for (int day = 0; day < days.length; day++) {
+            days[day] = calendar.getDayName(day);
+        }
+        this.periods = new String[periodsPerDay];
+        for (int period = 1; period <= periodsPerDay; period++) {
+            periods[period - 1] = PeriodTimes.label(calendar, period);
+        }
+        this.cells = new Cell[periodsPerDay * days.length];
+    }
+
+    // Class view of the whole timetable; also call after changing it in place
+    public void setTimetable(Timetable timetable) {
+        if (timetable == null) {
+            setWeek(null, periodsPerDay, View.CLASS);
+            return;
+        }
+        TimetableEntry[] week = new TimetableEntry[timetable.getSlotCount()];
+        for (int slot = 0; slot < week.length; slot++) {
+            week[slot] = timetable.getEntryAt(slot);
+        }
+        setWeek(week, timetable.getPeriodsPerDay(), View.CLASS);
+    }
+
+    // Entries by slot index, e.g. Timetable.getTeacherWeek, shown from the given view
+    public void setWeek(TimetableEntry[] week, int weekPeriodsPerDay, View view) {
+        Cell[] built = new Cell[periodsPerDay * days.length];
+        if (week != null) {
+            int periods = Math.min(periodsPerDay, weekPeriodsPerDay);
+            int weekDays = Math.min(days.length, week.length / weekPeriodsPerDay);
+            for (int row = 0; row < periods; row++) {
+                for (int day = 0; day < weekDays; day++) {
+                    TimetableEntry entry = week[day * weekPeriodsPerDay + row];
+                    if (entry != null) {
+                        built[row * days.length + day] = cell(entry, view);
+                    }
+                }
+            }
+        }
+        cells = built;
+        fireTableDataChanged();
+    }
+
+    private static Cell cell(TimetableEntry entry, View view) {
+        String subject = entry.getSubject().getName();
+        String teacher = entry.getTeacher().getName();
+        String classroom = entry.getClassroom().getClassRoom();
+        switch (view) {
+            case TEACHER:
+                return new Cell(subject, classroom, "");
+            case CLASSROOM:
+                return new Cell(subject, teacher, "");
+            default:
+                return new Cell(subject, teacher, classroom);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return periodsPerDay;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return days.length + 1;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return column == 0 ? "Time" : days[column - 1];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 0 ? String.class : Cell.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if (column == 0) return periods[row];  // ✅ show actual time
+        return cells[row * days.length + column - 1];
+    }
+
+    // One scheduled lesson as the lines the grid shows
+    static final class Cell {
+
+        final String first;
+        final String second;
+        final String third;
+
+        Cell(String first, String second, String third) {
+            this.first = first;
+            this.second = second;
+            this.third = third;
+        }
+
+        // Used when a cell is copied
+        @Override
+        public String toString() {
+            return third.isEmpty() ? first + " / " + second : first + " / " + second + " / " + third;
+        }
+    }
+}
+
+// Draws a timetable cell as plain text lines (subject, then teacher and room).
+// The default renderer would parse an HTML string on every paint; this one
+// only draws strings that TimetableTableModel has already built.
+class TimetableCellRenderer extends JComponent implements TableCellRenderer {
+
+    private static final int INSET = 4;
+
+    private TimetableTableModel.Cell cell;
+    private boolean selected;
+    private JTable table;
+
+    TimetableCellRenderer() {
+        setOpaque(true);
+    }
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                   boolean hasFocus, int row, int column) {
+        this.table = table;
+        this.cell = (TimetableTableModel.Cell) value;
+        this.selected = isSelected;
+        setFont(table.getFont());
+        return this;
+    }
+
+    // Full cell text, since long names can be cut off at the cell edge
+    @Override
+    public String getToolTipText() {
+        return cell != null ? cell.toString() : null;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(selected ? table.getSelectionBackground() : table.getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (cell == null) {
+            return;
+        }
+        Graphics2D g2 = (Graphics2D) g;
+        Object antialias = Toolkit.getDefaultToolkit().getDesktopProperty("awt.font.desktophints");
+        if (antialias instanceof Map) {
+            g2.addRenderingHints((Map<?, ?>) antialias);
+        }
+        g2.setColor(selected ? table.getSelectionForeground() : table.getForeground());
+        g2.setFont(getFont());
+        FontMetrics metrics = g2.getFontMetrics();
+        int lineHeight = metrics.getHeight();
+        // Three lines, centred vertically like the default label renderer
+        int y = (getHeight() - 3 * lineHeight) / 2 + metrics.getAscent();
+        g2.drawString(cell.first, INSET, y);
+        g2.drawString(cell.second, INSET, y + lineHeight);
+        g2.drawString(cell.third, INSET, y + 2 * lineHeight);
+    }
+
+    // Like DefaultTableCellRenderer, skip layout and repaint requests: the
+    // component is only ever used to stamp cells
+    @Override
+    public void invalidate() {
+    }
+
+    @Override
+    public void validate() {
+    }
+
+    @Override
+    public void revalidate() {
+    }
+
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+    }
+
+    @Override
+    public void repaint(Rectangle r) {
+    }
+
+    @Override
+    public void repaint() {
+    }
+}
+
+
+
+// Timetable Generator Algorithm
+
+// Cooperative stop signal for solver runs: a time budget, explicit cancellation
+// or thread interruption. Child controls also stop when their parent does.
+// Solvers also report progress here; it is collected on the root control so a
+// UI thread can poll it while the solve runs elsewhere.
+class SolveControl {
+
+    private final SolveControl parent;
+    private final long deadline;
+    private volatile boolean cancelled;
+    private final AtomicInteger placedPeriods = new AtomicInteger();
+    private final AtomicLong bestScore = new AtomicLong(Long.MAX_VALUE);
+
+    private SolveControl(SolveControl parent, long deadline) {
+        this.parent = parent;
+        this.deadline = deadline;
+    }
+
+    public static SolveControl unlimited() {
+        return new SolveControl(null, Long.MAX_VALUE);
+    }
+
+    public static SolveControl withBudget(long millis) {
+        return new SolveControl(null, System.nanoTime() + millis * 1_000_000L);
+    }
+
+    public SolveControl child() {
+        return new SolveControl(this, deadline);
+    }
+
+    public SolveControl child(long millis) {
+        return new SolveControl(this, Math.min(deadline, System.nanoTime() + millis * 1_000_000L));
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isStopped() {
+        return cancelled
+                || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+                || Thread.currentThread().isInterrupted()
+                || (parent != null && parent.isStopped());
+    }
+
+    // Most periods any run has placed so far
+    public void reportPlacedPeriods(int periods) {
+        if (parent != null) {
+            parent.reportPlacedPeriods(periods);
+        } else {
+            placedPeriods.accumulateAndGet(periods, Math::max);
+        }
+    }
+
+    // Lowest improvement score any run has reached so far
+    public void reportScore(long score) {
+        if (parent != null) {
+            parent.reportScore(score);
+        } else {
+            bestScore.accumulateAndGet(score, Math::min);
+        }
+    }
+
+    public int getPlacedPeriods() {
+        return parent != null ? parent.getPlacedPeriods() : placedPeriods.get();
+    }
+
+    // Long.MAX_VALUE until a score has been reported
+    public long getBestScore() {
+        return parent != null ? parent.getBestScore() : bestScore.get();
+    }
+}
+
+enum SolverEngine {
+    GREEDY("Greedy"),
+    BACKTRACKING("Backtracking");
+
+    private final String label;
+
+    SolverEngine(String label) {
+        this.label = label;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
+
+class TimetableGenerator {
+
+    // Days, breaks and lesson blocks; periodsPerDay is the calendar's
+    private final SchoolCalendar calendar;
+    private final int periodsPerDay;
+
+    private final Set<String> doublePeriodSubjects = Set.of("Combined Maths", "Biology", "Physics", "Chemistry");
+
+    private SolverEngine engine = SolverEngine.GREEDY;
+    // Every generation restarts from the seed, so equal inputs give equal timetables
+    private long seed = new Random().nextLong();
+    private Random random;
+    private SolveControl control = SolveControl.unlimited();
+    private boolean reportUnscheduled = true;
+    private boolean recordMetrics = true;
+    private long improvementMoves = 0;
+    private boolean balanceTeacherLoad = false;
+    private Function<ProblemInstance, TimetableScorer> scorer;
+
+    // Solver instrumentation, exported by LoginServer's /metrics endpoint
+    private static final String[] REJECTION_REASONS = {
+            "slot_taken", "subject_same_day", "no_room", "teacher_busy", "teacher_daily_limit"
+    };
+    private static final int SLOT_TAKEN = 0, SAME_DAY = 1, NO_ROOM = 2, TEACHER_BUSY = 3, TEACHER_LIMIT = 4;
+    private static final String[] PHASES = {
+            "double_periods", "single_periods", "special_slots", "backtracking", "improvement"
+    };
+    private static final int DOUBLE_PHASE = 0, SINGLE_PHASE = 1, SPECIAL_PHASE = 2,
+            BACKTRACKING_PHASE = 3, IMPROVEMENT_PHASE = 4;
+
+    private static final Metrics.Counter PLACEMENT_ATTEMPTS = Metrics.shared().counter(
+            "timetable_placement_attempts_total", "Candidate slots tried by the greedy scheduler");
+    private static final Metrics.Counter PLACEMENTS = Metrics.shared().counter(
+            "timetable_placements_total", "Lessons placed by the greedy scheduler");
+    private static final Metrics.Counter[] REJECTIONS = new Metrics.Counter[REJECTION_REASONS.length];
+    private static final Metrics.Histogram[] PHASE_SECONDS = new Metrics.Histogram[PHASES.length];
+    private static final Metrics.Histogram[] GENERATION_SECONDS = new Metrics.Histogram[SolverEngine.values().length];
+    private static final Metrics.Counter UNSCHEDULED_LESSONS = Metrics.shared().counter(
+            "timetable_unscheduled_lessons_total", "Lessons left unplaced when construction finished");
+    private static final Metrics.Counter UNSCHEDULED_REPORTS = Metrics.shared().counter(
+            "timetable_unscheduled_reports_total", "\"Could not schedule\" results, one per subject and section");
+    private static final Metrics.Counter SEARCH_NODES = Metrics.shared().counter(
+            "timetable_search_nodes_total", "Nodes visited by the backtracking scheduler");
+    private static final Metrics.Counter IMPROVEMENT_MOVES_TRIED = Metrics.shared().counter(
+            "timetable_improvement_moves_total", "Moves tried by the annealing improver");
+
+    static {
+        for (int i = 0; i < REJECTION_REASONS.length; i++) {
+            REJECTIONS[i] = Metrics.shared().counter("timetable_placement_rejections_total",
+                    "Greedy placement attempts rejected, by constraint", "reason", REJECTION_REASONS[i]);
+        }
+        for (int i = 0; i < PHASES.length; i++) {
+            PHASE_SECONDS[i] = Metrics.shared().histogram("timetable_phase_seconds",
+                    "Time per solver phase and section", Metrics.LATENCY_BUCKETS, "phase", PHASES[i]);
+        }
+        for (SolverEngine engine : SolverEngine.values()) {
+            GENERATION_SECONDS[engine.ordinal()] = Metrics.shared().histogram("timetable_generation_seconds",
+                    "Time per generation run", Metrics.LATENCY_BUCKETS, "engine", engine.name().toLowerCase());
+        }
+    }
+
+    // Tallied in plain fields while scheduling a section, then added to the shared counters
+    private long attempts;
+    private long placements;
+    private final long[] rejections = new long[REJECTION_REASONS.length];
+    private final long[] phaseNanos = new long[3];
+
+    // A standard five-day week; see SchoolCalendar.standard
+    public TimetableGenerator(int periodsPerDay) {
+        this(SchoolCalendar.standard(periodsPerDay));
+    }
+
+    public TimetableGenerator(int periodsPerDay, SolverEngine engine) {
+        this(SchoolCalendar.standard(periodsPerDay), engine);
+    }
+
+    public TimetableGenerator(SchoolCalendar calendar) {
+        this.calendar = calendar;
+        this.periodsPerDay = calendar.getPeriodsPerDay();
+    }
+
+    public TimetableGenerator(SchoolCalendar calendar, SolverEngine engine) {
+        this(calendar);
+        this.engine = engine;
+    }
+
+    public void setEngine(SolverEngine engine) {
+        this.engine = engine;
+    }
+
+    public SolverEngine getEngine() {
+        return engine;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setControl(SolveControl control) {
+        this.control = control;
+    }
+
+    public SolveControl getControl() {
+        return control;
+    }
+
+    // Number of simulated-annealing moves run after construction; 0 disables the phase
+    public void setImprovementMoves(long improvementMoves) {
+        this.improvementMoves = improvementMoves;
+    }
+
+    public long getImprovementMoves() {
+        return improvementMoves;
+    }
+
+    // Prefer the qualified teacher with the lightest week when several are free
+    public void setBalanceTeacherLoad(boolean balanceTeacherLoad) {
+        this.balanceTeacherLoad = balanceTeacherLoad;
+    }
+
+    public boolean isBalanceTeacherLoad() {
+        return balanceTeacherLoad;
+    }
+
+    // Builds the soft-constraint scorer for a run, e.g. TimetableScorer::standard.
+    // Once every section is built and improved, a second improvement pass then
+    // minimises its score without leaving out any lesson that is placed. Null
+    // (the default) improves against the hard rules only
+    public void setScorer(Function<ProblemInstance, TimetableScorer> scorer) {
+        this.scorer = scorer;
+    }
+
+    public Function<ProblemInstance, TimetableScorer> getScorer() {
+        return scorer;
+    }
+
+    // Portfolio runs turn this off so only the chosen result is reported
+    public void setReportUnscheduled(boolean reportUnscheduled) {
+        this.reportUnscheduled = reportUnscheduled;
+    }
+
+    public boolean isReportUnscheduled() {
+        return reportUnscheduled;
+    }
+
+    // The server's warm-up turns this off so /metrics counts only requested runs
+    public void setRecordMetrics(boolean recordMetrics) {
+        this.recordMetrics = recordMetrics;
+    }
+
+    public Timetable generateTimetable(List<Teacher> teachers, List<Subject> subjects, List<Classroom> classrooms) {
+        return generateTimetable(ProblemInstance.compile(this, teachers, subjects, classrooms));
+    }
+
+    // Generates from a compiled instance, which can be reused across many runs
+    public Timetable generateTimetable(ProblemInstance instance) {
+        long started = System.nanoTime();
+        random = new Random(seed);
+        Timetable timetable = new Timetable(instance, new ResourceOccupancy(instance));
+        scheduleSection(timetable, null, instance, instance.getInputSubjectIds());
+        improveSoft(instance, List.of(timetable), List.of(instance.getInputSubjectIds()));
+        if (recordMetrics) {
+            GENERATION_SECONDS[engine.ordinal()].observeNanos(System.nanoTime() - started);
+        }
+        return timetable;
+    }
+
+    // Schedules every class group in one run; teachers and classrooms are shared,
+    // so a teacher or room booked by one section is unavailable to the others
+    public SchoolTimetable generateTimetables(List<ClassGroup> groups, List<Teacher> teachers, List<Classroom> classrooms) {
+        long started = System.nanoTime();
+        // Candidate lists depend only on the subject, so compile them once for all sections
+        List<Subject> allSubjects = new ArrayList<>();
+        for (ClassGroup group : groups) {
+            allSubjects.addAll(group.getSubjects());
+        }
+        ProblemInstance instance = ProblemInstance.compile(this, teachers, allSubjects, classrooms);
+        SchoolTimetable school = new SchoolTimetable(instance);
+        random = new Random(seed);
+
+        List<Timetable> timetables = new ArrayList<>();
+        List<int[]> sectionSubjects = new ArrayList<>();
+        for (ClassGroup group : groups) {
+            Timetable timetable = school.addGroup(group);
+            int[] subjectIds = instance.subjectIds(group.getSubjects());
+            scheduleSection(timetable, group, instance, subjectIds);
+            timetables.add(timetable);
+            sectionSubjects.add(subjectIds);
+        }
+        improveSoft(instance, timetables, sectionSubjects);
+        if (recordMetrics) {
+            GENERATION_SECONDS[engine.ordinal()].observeNanos(System.nanoTime() - started);
+        }
+        return school;
+    }
+
+    // Soft constraints only rearrange finished sections: every section is built
+    // and improved exactly as without a scorer, so they never decide which
+    // lessons get placed. One scorer covers the school, so teacher gaps count
+    // every section.
+    private void improveSoft(ProblemInstance instance, List<Timetable> timetables, List<int[]> sectionSubjects) {
+        if (scorer == null || improvementMoves <= 0) {
+            return;
+        }
+        TimetableScorer soft = scorer.apply(instance);
+        for (Timetable timetable : timetables) {
+            soft.addSection(timetable);
+        }
+        for (int section = 0; section < timetables.size() && !control.isStopped(); section++) {
+            improve(timetables.get(section), instance, sectionSubjects.get(section), soft, section);
+        }
+    }
+
+    private void improve(Timetable timetable, ProblemInstance instance, int[] subjectIds,
+                         TimetableScorer soft, int section) {
+        long started = System.nanoTime();
+        AnnealingImprover improver = new AnnealingImprover(this, random);
+        improver.setControl(control);
+        improver.setMaxMoves(improvementMoves);
+        if (soft != null) {
+            improver.setScorer(soft, section);
+        }
+        improver.improve(timetable, instance, subjectIds);
+        if (recordMetrics) {
+            PHASE_SECONDS[IMPROVEMENT_PHASE].observeNanos(System.nanoTime() - started);
+            IMPROVEMENT_MOVES_TRIED.add(improver.getMovesTried());
+        }
+    }
+
+    private void scheduleSection(Timetable timetable, ClassGroup group, ProblemInstance instance, int[] subjectIds) {
+        long started = System.nanoTime();
+        if (engine == SolverEngine.BACKTRACKING) {
+            BacktrackingScheduler scheduler = new BacktrackingScheduler(this, random);
+            scheduler.setControl(control);
+            scheduler.schedule(timetable, instance, subjectIds);
+            if (recordMetrics) {
+                PHASE_SECONDS[BACKTRACKING_PHASE].observeNanos(System.nanoTime() - started);
+                SEARCH_NODES.add(scheduler.getNodes());
+            }
+        } else {
+            Arrays.fill(phaseNanos, -1);
+            try {
+                scheduleGreedy(timetable, group, instance, subjectIds);
+            } finally {
+                flushGreedyMetrics();
             }
         }
-        return false;
+
+        // Optional local search: places leftover lessons and evens out the week
+        if (improvementMoves > 0 && !control.isStopped()) {
+            improve(timetable, instance, subjectIds, null, -1);
+        }
+    }
+
+    private void scheduleGreedy(Timetable timetable, ClassGroup group, ProblemInstance instance, int[] subjectIds) {
+        ResourceOccupancy occupancy = timetable.getOccupancy();
+
+        // Step 1: Possible blocks of each length, precomputed by the calendar; one
+        // working copy per length, reshuffled before every attempt
+        Map<Integer, int[]> blockOrder = new HashMap<>();
+
+        // Step 2: Schedule subjects based on weeklyPeriod
+        for (int subject : subjectIds) {
+            control.reportPlacedPeriods(timetable.getEntryCount());
+            if (control.isStopped()) return;
+            if (getFixedPeriod(instance.getSubject(subject)) > 0) continue; // skip special subjects
+
+            long subjectStarted = System.nanoTime();
+            int length = instance.getLessonLength(subject);
+            int phase = length > 1 ? DOUBLE_PHASE : SINGLE_PHASE;
+            int[] qualifiedTeachers = instance.getQualifiedTeachers(subject).clone();
+            int[] suitableRooms = instance.getSuitableRooms(subject).clone();
+
+            int periodsScheduled = 0;
+
+            if (length > 1) {
+                // Schedule in blocks of `length` periods
+                int blocksNeeded = instance.getRequiredLessons(subject);
+                int[] blocks = blockOrder.computeIfAbsent(length, l -> instance.getBlocks(l).clone());
+                while (periodsScheduled < blocksNeeded) {
+                    boolean scheduled = false;
+                    shuffle(blocks);
+                    shuffle(qualifiedTeachers);
+                    shuffle(suitableRooms);
+
+                    for (int start : blocks) {
+                        attempts++;
+                        if (!isBlockEmpty(timetable, start, length)) {
+                            rejections[SLOT_TAKEN]++;
+                            continue;
+                        }
+                        if (timetable.isSubjectScheduledOnDay(subject, start / periodsPerDay)) {
+                            rejections[SAME_DAY]++;
+                            continue;
+                        }
+                        int room = pickRoom(occupancy, suitableRooms, start, length);
+                        int teacher = room < 0 ? -1 : pickTeacher(occupancy, qualifiedTeachers, start, length);
+                        if (teacher >= 0) {
+                            for (int slot = start; slot < start + length; slot++) {
+                                timetable.addEntry(slot, teacher, room, subject);
+                            }
+
+                            placements++;
+                            periodsScheduled++;
+                            scheduled = true;
+                            break;
+                        }
+                    }
+
+                    if (!scheduled) {
+                        recordUnscheduled(1, blocksNeeded - periodsScheduled);
+                        reportUnscheduled(instance.getSubject(subject), group);
+                        break;
+                    }
+                }
+
+            } else {
+                // Schedule in single periods, day by day, skipping the breaks
+                int periodsNeeded = instance.getRequiredLessons(subject);
+                for (int slot : instance.getStartSlots(subject)) {
+                    attempts++;
+                    if (!timetable.isSlotEmpty(slot)) {
+                        rejections[SLOT_TAKEN]++;
+                        continue;
+                    }
+                    if (timetable.isSubjectScheduledOnDay(subject, slot / periodsPerDay)) {
+                        rejections[SAME_DAY]++;
+                        continue;
+                    }
+
+                    if (placeInSlot(timetable, slot, subject, qualifiedTeachers, suitableRooms)) {
+                        periodsScheduled++;
+                        if (periodsScheduled >= periodsNeeded) break;
+                    }
+                }
+                if (periodsScheduled < periodsNeeded && recordMetrics) {
+                    UNSCHEDULED_LESSONS.add(periodsNeeded - periodsScheduled);
+                }
+            }
+            addPhaseTime(phase, System.nanoTime() - subjectStarted);
+        }
+// Step 3: Schedule English and Git in last 2 periods
+        List<String> specialSubjects = List.of("English", "Git");
+
+        for (String subName : specialSubjects) {
+            if (control.isStopped()) return;
+            int subject = instance.subjectId(subName);
+            if (subject < 0 || Arrays.stream(subjectIds).noneMatch(id -> id == subject)) continue;
+            int period = getFixedPeriod(instance.getSubject(subject)); // English: 2nd last, Git: last
+            if (period == 0) continue; // not pinned on this calendar, placed in step 2
+            long subjectStarted = System.nanoTime();
+
+            int[] qualifiedTeachers = instance.getQualifiedTeachers(subject).clone();
+            int[] suitableRooms = instance.getSuitableRooms(subject).clone();
+
+            int[] days = java.util.stream.IntStream.range(0, instance.getDays()).toArray();
+            shuffle(days);
+
+            for (int day : days) {
+                int slot = timetable.slotIndex(day, period);
+                attempts++;
+                if (!timetable.isSlotEmpty(slot)) {
+                    rejections[SLOT_TAKEN]++;
+                    continue;
+                }
+
+                shuffle(qualifiedTeachers);
+                shuffle(suitableRooms);
+
+                placeInSlot(timetable, slot, subject, qualifiedTeachers, suitableRooms);
+            }
+            addPhaseTime(SPECIAL_PHASE, System.nanoTime() - subjectStarted);
+        }
+        control.reportPlacedPeriods(timetable.getEntryCount());
+    }
+
+    private static boolean isBlockEmpty(Timetable timetable, int start, int length) {
+        for (int slot = start; slot < start + length; slot++) {
+            if (!timetable.isSlotEmpty(slot)) return false;
+        }
+        return true;
+    }
+
+    // Places the subject with a free teacher and room; the slot itself must be empty
+    private boolean placeInSlot(Timetable timetable, int slot, int subject,
+                                int[] qualifiedTeachers, int[] suitableRooms) {
+        ResourceOccupancy occupancy = timetable.getOccupancy();
+        int room = pickRoom(occupancy, suitableRooms, slot, 1);
+        int teacher = room < 0 ? -1 : pickTeacher(occupancy, qualifiedTeachers, slot, 1);
+        if (teacher < 0) {
+            return false;
+        }
+        timetable.addEntry(slot, teacher, room, subject);
+        placements++;
+        return true;
+    }
+
+    // First room free for the whole lesson, or -1
+    private int pickRoom(ResourceOccupancy occupancy, int[] rooms, int start, int length) {
+        for (int room : rooms) {
+            if (occupancy.isClassroomFree(room, start, length)) {
+                return room;
+            }
+        }
+        rejections[NO_ROOM]++;
+        return -1;
+    }
+
+    // First teacher free for the whole lesson and within their daily limit, or -1;
+    // with load balancing, the one with the fewest periods this week
+    private int pickTeacher(ResourceOccupancy occupancy, int[] teachers, int start, int length) {
+        int best = -1;
+        boolean overLimit = false;
+        for (int teacher : teachers) {
+            if (!occupancy.isTeacherFree(teacher, start, length)) {
+                continue;
+            }
+            if (!occupancy.hasTeacherCapacity(teacher, start, length)) {
+                overLimit = true;
+                continue;
+            }
+            if (!balanceTeacherLoad) {
+                return teacher;
+            }
+            if (best < 0 || occupancy.getTeacherWeekLoad(teacher) < occupancy.getTeacherWeekLoad(best)) {
+                best = teacher;
+            }
+        }
+        if (best < 0) {
+            // Busy only if no free teacher was turned away by the daily limit
+            rejections[overLimit ? TEACHER_LIMIT : TEACHER_BUSY]++;
+        }
+        return best;
+    }
+
+    private void addPhaseTime(int phase, long nanos) {
+        phaseNanos[phase] = Math.max(phaseNanos[phase], 0) + nanos;
+    }
+
+    private void flushGreedyMetrics() {
+        if (recordMetrics) {
+            PLACEMENT_ATTEMPTS.add(attempts);
+            PLACEMENTS.add(placements);
+            for (int i = 0; i < rejections.length; i++) {
+                REJECTIONS[i].add(rejections[i]);
+            }
+            for (int i = 0; i < phaseNanos.length; i++) {
+                if (phaseNanos[i] >= 0) {
+                    PHASE_SECONDS[i].observeNanos(phaseNanos[i]);
+                }
+            }
+        }
+        Arrays.fill(rejections, 0);
+        attempts = 0;
+        placements = 0;
+    }
+
+    // Counts subjects a run could not fully schedule and the lessons left over
+    void recordUnscheduled(int subjects, int lessons) {
+        if (!recordMetrics) {
+            return;
+        }
+        UNSCHEDULED_REPORTS.add(subjects);
+        UNSCHEDULED_LESSONS.add(lessons);
+    }
+
+    // Fisher-Yates shuffle with the generator's seeded Random
+    private void shuffle(int[] values) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+    }
+
+    private void reportUnscheduled(Subject subject, ClassGroup group) {
+        if (!reportUnscheduled) {
+            return;
+        }
+        if (group == null) {
+            System.out.println("Could not schedule all periods for: " + subject.getName());
+        } else {
+            System.out.println("Could not schedule all periods for: " + subject.getName() + " (" + group.getName() + ")");
+        }
+    }
+
+    public SchoolCalendar getCalendar() {
+        return calendar;
+    }
+
+    public int getPeriodsPerDay() {
+        return periodsPerDay;
+    }
+
+    public boolean isDoublePeriodSubject(Subject subject) {
+        return doublePeriodSubjects.contains(subject.getName());
+    }
+
+    // English and Git are pinned to the last two periods that are not breaks; 0 for every other subject.
+    // With a single teaching period Git keeps it and English is scheduled like any other subject
+    public int getFixedPeriod(Subject subject) {
+        int[] teaching = calendar.getTeachingPeriods();
+        if (subject.getName().equals("English")) return teaching.length > 1 ? teaching[teaching.length - 2] : 0;
+        if (subject.getName().equals("Git")) return teaching[teaching.length - 1];
+        return 0;
+    }
+
+    // Periods in one lesson: the calendar's block length for the subject if it has
+    // one, else 2 for double-period subjects and 1 otherwise; pinned subjects take 1
+    public int getLessonLength(Subject subject) {
+        if (getFixedPeriod(subject) > 0) return 1;
+        int configured = calendar.getLessonLength(subject.getName());
+        if (configured > 0) return configured;
+        return isDoublePeriodSubject(subject) ? 2 : 1;
+    }
+
+    // Periods a lesson of the subject may start in, on any day
+    public int[] getStartPeriods(Subject subject) {
+        int fixedPeriod = getFixedPeriod(subject);
+        if (fixedPeriod > 0) {
+            return new int[]{fixedPeriod};
+        }
+        return calendar.getBlockStarts(getLessonLength(subject));
     }
-}
\ No newline at end of file
+
+    // Start slots of every valid lesson of the subject in the week, from the
+    // calendar's tables; shared, must not be modified
+    public int[] getStartSlots(Subject subject) {
+        int fixedPeriod = getFixedPeriod(subject);
+        if (fixedPeriod > 0) {
+            return calendar.getPeriodSlots(fixedPeriod);
+        }
+        return calendar.getBlocks(getLessonLength(subject));
+    }
+
+    // Lessons per week: blocks for longer lessons, at most one per day for English/Git
+    public int getRequiredLessons(Subject subject) {
+        if (getFixedPeriod(subject) > 0) return Math.min(subject.getWeeklyPeriod(), calendar.getDays());
+        int length = getLessonLength(subject);
+        return (subject.getWeeklyPeriod() + length - 1) / length;
+    }
+
+    // Periods a complete timetable holds for the subjects
+    public int countRequiredPeriods(List<Subject> subjects) {
+        int required = 0;
+        for (Subject subject : subjects) {
+            required += getRequiredLessons(subject) * getLessonLength(subject);
+        }
+        return required;
+    }
+
+    // Periods the subjects still need: 0 means a complete timetable
+    public int countMissingPeriods(Timetable timetable, List<Subject> subjects) {
+        Map<String, Integer> placed = new HashMap<>();
+        for (int index = 0; index < timetable.getSlotCount(); index++) {
+            TimetableEntry entry = timetable.getEntryAt(index);
+            if (entry != null) {
+                placed.merge(entry.getSubject().getName(), 1, Integer::sum);
+            }
+        }
+        int missing = 0;
+        for (Subject subject : subjects) {
+            int required = getRequiredLessons(subject) * getLessonLength(subject);
+            missing += Math.max(0, required - placed.getOrDefault(subject.getName(), 0));
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.*;
+
+// Incremental re-scheduling after a teacher, subject or classroom changes.
+//
+// Only entries the change invalidates are removed. A lesson that lost its teacher
+// or room first tries a substitute in the same slot; anything still missing is
+// placed into a free slot, moving at most one other lesson out of the way, so the
+// rest of the published timetable stays as it was.
+class TimetableRepairer {
+
+    private final TimetableGenerator rules;
+
+    public TimetableRepairer(TimetableGenerator rules) {
+        this.rules = rules;
+    }
+
+    // Applies the change to the timetable in place and returns the periods still missing
+    public int repair(Timetable timetable, ScheduleChange change,
+                      List<Teacher> teachers, List<Subject> subjects, List<Classroom> classrooms) {
+        switch (change.getKind()) {
+            case TEACHER_REMOVED:
+                for (int[] lesson : lessonsMatching(timetable, e -> e.getTeacher() == change.getTeacher())) {
+                    reassignTeacher(timetable, lesson, teachers);
+                }
+                break;
+            case CLASSROOM_REMOVED:
+                for (int[] lesson : lessonsMatching(timetable, e -> e.getClassroom() == change.getClassroom())) {
+                    reassignClassroom(timetable, lesson, classrooms);
+                }
+                break;
+            case SUBJECT_REMOVED:
+                if (subjects.stream().noneMatch(s -> s.getName().equals(change.getSubject().getName()))) {
+                    for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+                        TimetableEntry entry = timetable.getEntryAt(slot);
+                        if (entry != null && entry.getSubject().getName().equals(change.getSubject().getName())) {
+                            timetable.removeEntryAt(slot);
+                        }
+                    }
+                }
+                break;
+            default:
+                // Additions never invalidate entries; they may only make missing lessons placeable
+                break;
+        }
+        placeMissing(timetable, teachers, subjects, classrooms);
+        return rules.countMissingPeriods(timetable, subjects);
+    }
+
+    private void reassignTeacher(Timetable timetable, int[] lesson, List<Teacher> teachers) {
+        TimetableEntry entry = timetable.getEntryAt(lesson[0]);
+        removeLesson(timetable, lesson);
+        for (Teacher teacher : teachers) {
+            if (teacher.getSubjects().contains(entry.getSubject().getName())
+                    && resourcesFree(timetable, lesson, teacher, entry.getClassroom())) {
+                addLesson(timetable, lesson, teacher, entry.getClassroom(), entry.getSubject());
+                return;
+            }
+        }
+    }
+
+    private void reassignClassroom(Timetable timetable, int[] lesson, List<Classroom> classrooms) {
+        TimetableEntry entry = timetable.getEntryAt(lesson[0]);
+        removeLesson(timetable, lesson);
+        for (Classroom room : classrooms) {
+            if ((!entry.getSubject().requiresLab() || room.isLab())
+                    && resourcesFree(timetable, lesson, entry.getTeacher(), room)) {
+                addLesson(timetable, lesson, entry.getTeacher(), room, entry.getSubject());
+                return;
+            }
+        }
+    }
+
+    private void placeMissing(Timetable timetable, List<Teacher> teachers,
+                              List<Subject> subjects, List<Classroom> classrooms) {
+        Set<String> seen = new HashSet<>();
+        for (Subject subject : subjects) {
+            if (!seen.add(subject.getName())) continue;
+            int missing = rules.getRequiredLessons(subject) - countLessons(timetable, subject);
+            for (int i = 0; i < missing; i++) {
+                if (placeDirect(timetable, subject, teachers, classrooms, -1) == null
+                        && !placeByMovingOne(timetable, subject, teachers, classrooms)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Places one lesson in the first free start, skipping the excluded start; null if none fits
+    private int[] placeDirect(Timetable timetable, Subject subject, List<Teacher> teachers,
+                                List<Classroom> classrooms, int excludedStart) {
+        for (int start : candidateStarts(subject)) {
+            if (start == excludedStart) continue;
+            int[] lesson = {start, rules.getLessonLength(subject)};
+            if (!slotsEmpty(timetable, lesson)
+                    || timetable.isSubjectScheduledOnDay(subject, start / timetable.getPeriodsPerDay())) {
+                continue;
+            }
+            for (Teacher teacher : teachers) {
+                if (!teacher.getSubjects().contains(subject.getName())) continue;
+                for (Classroom room : classrooms) {
+                    if ((!subject.requiresLab() || room.isLab()) && resourcesFree(timetable, lesson, teacher, room)) {
+                        addLesson(timetable, lesson, teacher, room, subject);
+                        return lesson;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    // Frees a start held by exactly one other lesson by moving that lesson elsewhere
+    private boolean placeByMovingOne(Timetable timetable, Subject subject, List<Teacher> teachers,
+                                     List<Classroom> classrooms) {
+        int length = rules.getLessonLength(subject);
+        for (int start : candidateStarts(subject)) {
+            if (timetable.isSubjectScheduledOnDay(subject, start / timetable.getPeriodsPerDay())) continue;
+            TimetableEntry blocking = timetable.getEntryAt(start);
+            if (blocking == null) continue;
+            int[] blocker = lessonAt(timetable, start);
+            if (blocker[0] != start || blocker[1] != length
+                    || rules.getLessonLength(blocking.getSubject()) != length) continue;
+
+            TimetableEntry[] saved = removeLesson(timetable, blocker);
+            int[] moved = placeDirect(timetable, blocking.getSubject(), teachers, classrooms, start);
+            if (moved != null) {
+                if (placeDirect(timetable, subject, teachers, classrooms, -1) != null) {
+                    return true;
+                }
+                removeLesson(timetable, moved);
+            }
+            for (TimetableEntry entry : saved) {
+                timetable.addEntry(entry.getTeacher(), entry.getClassroom(), entry.getTimeslot(), entry.getSubject());
+            }
+        }
+        return false;
+    }
+
+    // The calendar's precomputed start slots; the timetable has the calendar's shape
+    private int[] candidateStarts(Subject subject) {
+        return rules.getStartSlots(subject);
+    }
+
+    // Start slot and length of the lesson covering a slot, joining the periods of a block
+    private int[] lessonAt(Timetable timetable, int slot) {
+        TimetableEntry entry = timetable.getEntryAt(slot);
+        int length = rules.getLessonLength(entry.getSubject());
+        int dayStart = slot - slot % timetable.getPeriodsPerDay();
+        int dayEnd = dayStart + timetable.getPeriodsPerDay();
+        int first = slot;
+        while (first > dayStart && slot - first + 1 < length && sameLesson(entry, timetable.getEntryAt(first - 1))) {
+            first--;
+        }
+        int last = first;
+        while (last + 1 < dayEnd && last - first + 1 < length && sameLesson(entry, timetable.getEntryAt(last + 1))) {
+            last++;
+        }
+        return new int[]{first, last - first + 1};
+    }
+
+    private boolean sameLesson(TimetableEntry entry, TimetableEntry other) {
+        return other != null
+                && other.getSubject().getName().equals(entry.getSubject().getName())
+                && other.getTeacher() == entry.getTeacher()
+                && other.getClassroom() == entry.getClassroom();
+    }
+
+    private List<int[]> lessonsMatching(Timetable timetable, java.util.function.Predicate<TimetableEntry> invalid) {
+        List<int[]> lessons = new ArrayList<>();
+        for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+            TimetableEntry entry = timetable.getEntryAt(slot);
+            if (entry != null && invalid.test(entry)) {
+                int[] lesson = lessonAt(timetable, slot);
+                lessons.add(lesson);
+                slot = lesson[0] + lesson[1] - 1;
+            }
+        }
+        return lessons;
+    }
+
+    private int countLessons(Timetable timetable, Subject subject) {
+        int periods = 0;
+        for (int slot = 0; slot < timetable.getSlotCount(); slot++) {
+            TimetableEntry entry = timetable.getEntryAt(slot);
+            if (entry != null && entry.getSubject().getName().equals(subject.getName())) {
+                periods++;
+            }
+        }
+        int length = rules.getLessonLength(subject);
+        return (periods + length - 1) / length;
+    }
+
+    private boolean slotsEmpty(Timetable timetable, int[] lesson) {
+        for (int slot = lesson[0]; slot < lesson[0] + lesson[1]; slot++) {
+            if (timetable.getEntryAt(slot) != null) return false;
+        }
+        return true;
+    }
+
+    private boolean resourcesFree(Timetable timetable, int[] lesson, Teacher teacher, Classroom room) {
+        if (!timetable.getOccupancy().hasTeacherCapacity(teacher, lesson[0], lesson[1])) {
+            return false;
+        }
+        for (int slot = lesson[0]; slot < lesson[0] + lesson[1]; slot++) {
+            Timeslot timeslot = timetable.getTimeslot(slot);
+            if (!timetable.isTeacherAvailable(teacher, timeslot) || !timetable.isClassroomAvailable(room, timeslot)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addLesson(Timetable timetable, int[] lesson, Teacher teacher, Classroom room, Subject subject) {
+        for (int slot = lesson[0]; slot < lesson[0] + lesson[1]; slot++) {
+            timetable.addEntry(teacher, room, timetable.getTimeslot(slot), subject);
+        }
+    }
+
+    private TimetableEntry[] removeLesson(Timetable timetable, int[] lesson) {
+        TimetableEntry[] removed = new TimetableEntry[lesson[1]];
+        for (int offset = 0; offset < lesson[1]; offset++) {
+            removed[offset] = timetable.removeEntryAt(lesson[0] + offset);
+        }
+        return removed;
+    }
+}
+
+// One edit to the teacher, subject or classroom lists, as seen by TimetableRepairer
+class ScheduleChange {
+
+    enum Kind {
+        TEACHER_ADDED, TEACHER_REMOVED,
+        SUBJECT_ADDED, SUBJECT_REMOVED,
+        CLASSROOM_ADDED, CLASSROOM_REMOVED
+    }
+
+    private final Kind kind;
+    private final Object item;
+
+    private ScheduleChange(Kind kind, Object item) {
+        this.kind = kind;
+        this.item = item;
+    }
+
+    public static ScheduleChange teacherAdded(Teacher teacher) {
+        return new ScheduleChange(Kind.TEACHER_ADDED, teacher);
+    }
+
+    public static ScheduleChange teacherRemoved(Teacher teacher) {
+        return new ScheduleChange(Kind.TEACHER_REMOVED, teacher);
+    }
+
+    public static ScheduleChange subjectAdded(Subject subject) {
+        return new ScheduleChange(Kind.SUBJECT_ADDED, subject);
+    }
+
+    public static ScheduleChange subjectRemoved(Subject subject) {
+        return new ScheduleChange(Kind.SUBJECT_REMOVED, subject);
+    }
+
+    public static ScheduleChange classroomAdded(Classroom classroom) {
+        return new ScheduleChange(Kind.CLASSROOM_ADDED, classroom);
+    }
+
+    public static ScheduleChange classroomRemoved(Classroom classroom) {
+        return new ScheduleChange(Kind.CLASSROOM_REMOVED, classroom);
+    }
+
+    // Changes that turn the old list into the new one, compared by identity
+    public static <T> List<ScheduleChange> diff(List<T> before, List<T> after,
+                                                java.util.function.Function<T, ScheduleChange> added,
+                                                java.util.function.Function<T, ScheduleChange> removed) {
+        Set<T> oldItems = Collections.newSetFromMap(new IdentityHashMap<>());
+        oldItems.addAll(before);
+        Set<T> newItems = Collections.newSetFromMap(new IdentityHashMap<>());
+        newItems.addAll(after);
+
+        List<ScheduleChange> changes = new ArrayList<>();
+        for (T item : before) {
+            if (!newItems.contains(item)) changes.add(removed.apply(item));
+        }
+        for (T item : after) {
+            if (!oldItems.contains(item)) changes.add(added.apply(item));
+        }
+        return changes;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Teacher getTeacher() {
+        return (Teacher) item;
+    }
+
+    public Subject getSubject() {
+        return (Subject) item;
+    }
+
+    public Classroom getClassroom() {
+        return (Classroom) item;
+    }
+}
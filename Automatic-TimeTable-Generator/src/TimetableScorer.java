@@ -0,0 +1,459 @@
+import java.util.*;
+
+// Weighted soft constraints: how good a set of timetables is once every hard
+// rule holds. Lower is better; 0 means no constraint has anything to complain
+// about.
+//
+// The scorer keeps its own copy of each section's periods by slot (teacher,
+// classroom and subject IDs of the ProblemInstance) and every constraint keeps
+// counters over them, so booking or freeing one period updates the score
+// without rescanning the week: the cost is that of the periods it affects
+// (at most the teacher's day). Solvers call add/remove in their inner loops
+// and read the delta they return. Sections share teachers and classrooms, so
+// teacher gaps are counted across every section added.
+//
+// Constraints are pluggable: anything implementing Constraint can be added
+// with a weight, before or after periods are booked.
+class TimetableScorer {
+
+    static final String TEACHER_GAPS = "teacher_gaps";
+    static final String SUBJECT_SPREAD = "subject_spread";
+    static final String LAB_ROOM_CHANGES = "lab_room_changes";
+    static final String LATE_HEAVY_SUBJECTS = "late_heavy_subjects";
+
+    // One soft rule. add and remove return the change in its penalty when a
+    // period is booked or freed; IDs are the instance's, and a period's remove
+    // always follows its add with the same IDs.
+    interface Constraint {
+
+        String getName();
+
+        // Called once for every section, before any of its periods are added
+        void addSection(int section);
+
+        int add(int section, int slot, int teacher, int classroom, int subject);
+
+        int remove(int section, int slot, int teacher, int classroom, int subject);
+    }
+
+    private final int slotCount;
+
+    private final List<Constraint> constraints = new ArrayList<>();
+    private int[] weights = new int[0];
+    private long[] penalties = new long[0];
+    private long score;
+
+    // Per section, by slot: teacher, classroom and subject booked there, -1 if free
+    private final List<int[]> teachers = new ArrayList<>();
+    private final List<int[]> classrooms = new ArrayList<>();
+    private final List<int[]> subjects = new ArrayList<>();
+
+    // A scorer with no constraints; see standard()
+    public TimetableScorer(ProblemInstance instance) {
+        this.slotCount = instance.getSlotCount();
+    }
+
+    // Every built-in constraint with its default weight
+    public static TimetableScorer standard(ProblemInstance instance) {
+        TimetableScorer scorer = new TimetableScorer(instance);
+        scorer.addConstraint(new TeacherGaps(instance), 3);
+        scorer.addConstraint(new SubjectSpread(instance), 2);
+        scorer.addConstraint(new LabRoomChanges(instance), 4);
+        scorer.addConstraint(new LateHeavySubjects(instance), 1);
+        return scorer;
+    }
+
+    // Adds a constraint and counts the periods already booked against it
+    public void addConstraint(Constraint constraint, int weight) {
+        if (indexOf(constraint.getName()) >= 0) {
+            throw new IllegalArgumentException("Constraint '" + constraint.getName() + "' is already added");
+        }
+        int index = constraints.size();
+        constraints.add(constraint);
+        weights = Arrays.copyOf(weights, index + 1);
+        penalties = Arrays.copyOf(penalties, index + 1);
+        weights[index] = weight;
+
+        long penalty = 0;
+        for (int section = 0; section < teachers.size(); section++) {
+            constraint.addSection(section);
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (subjects.get(section)[slot] >= 0) {
+                    penalty += constraint.add(section, slot, teachers.get(section)[slot],
+                            classrooms.get(section)[slot], subjects.get(section)[slot]);
+                }
+            }
+        }
+        penalties[index] = penalty;
+        score += (long) weight * penalty;
+    }
+
+    // A weight of 0 turns the constraint off without losing its counters
+    public void setWeight(String name, int weight) {
+        int index = require(name);
+        score += (long) (weight - weights[index]) * penalties[index];
+        weights[index] = weight;
+    }
+
+    public int getWeight(String name) {
+        return weights[require(name)];
+    }
+
+    // Unweighted penalty of one constraint
+    public long getPenalty(String name) {
+        return penalties[require(name)];
+    }
+
+    // Weighted sum over every constraint
+    public long getScore() {
+        return score;
+    }
+
+    // Weighted score of each constraint, in the order they were added
+    public Map<String, Long> getBreakdown() {
+        Map<String, Long> breakdown = new LinkedHashMap<>();
+        for (int i = 0; i < constraints.size(); i++) {
+            breakdown.put(constraints.get(i).getName(), weights[i] * penalties[i]);
+        }
+        return breakdown;
+    }
+
+    // A new, empty section
+    public int addSection() {
+        int section = teachers.size();
+        teachers.add(emptySlots());
+        classrooms.add(emptySlots());
+        subjects.add(emptySlots());
+        for (Constraint constraint : constraints) {
+            constraint.addSection(section);
+        }
+        return section;
+    }
+
+    // A new section holding the timetable's periods; the timetable must share
+    // IDs with the instance (see Timetable(ProblemInstance, ResourceOccupancy))
+    public int addSection(Timetable timetable) {
+        int section = addSection();
+        setSection(section, timetable);
+        return section;
+    }
+
+    // Replaces the section's periods with the timetable's; returns the change in score
+    public long setSection(int section, Timetable timetable) {
+        long before = score;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (timetable.isSlotEmpty(slot)) {
+                remove(section, slot);
+            } else {
+                add(section, slot, timetable.getTeacherIdAt(slot), timetable.getClassroomIdAt(slot),
+                        timetable.getSubjectIdAt(slot));
+            }
+        }
+        return score - before;
+    }
+
+    public int getSectionCount() {
+        return teachers.size();
+    }
+
+    // Books one period, replacing whatever the slot held; returns the change in score
+    public long add(int section, int slot, int teacher, int classroom, int subject) {
+        int[] sectionTeachers = teachers.get(section);
+        int[] sectionClassrooms = classrooms.get(section);
+        int[] sectionSubjects = subjects.get(section);
+        if (sectionSubjects[slot] == subject && sectionTeachers[slot] == teacher
+                && sectionClassrooms[slot] == classroom) {
+            return 0;
+        }
+        long replaced = remove(section, slot);
+        sectionTeachers[slot] = teacher;
+        sectionClassrooms[slot] = classroom;
+        sectionSubjects[slot] = subject;
+        long delta = 0;
+        for (int i = 0; i < constraints.size(); i++) {
+            int change = constraints.get(i).add(section, slot, teacher, classroom, subject);
+            penalties[i] += change;
+            delta += (long) weights[i] * change;
+        }
+        score += delta;
+        return replaced + delta;
+    }
+
+    // Frees one period; returns the change in score (0 if the slot was free)
+    public long remove(int section, int slot) {
+        int subject = subjects.get(section)[slot];
+        if (subject < 0) {
+            return 0;
+        }
+        int teacher = teachers.get(section)[slot];
+        int classroom = classrooms.get(section)[slot];
+        teachers.get(section)[slot] = -1;
+        classrooms.get(section)[slot] = -1;
+        subjects.get(section)[slot] = -1;
+        long delta = 0;
+        for (int i = 0; i < constraints.size(); i++) {
+            int change = constraints.get(i).remove(section, slot, teacher, classroom, subject);
+            penalties[i] += change;
+            delta += (long) weights[i] * change;
+        }
+        score += delta;
+        return delta;
+    }
+
+    // "teacher_gaps 4 x 3, subject_spread 1 x 2, ..."
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < constraints.size(); i++) {
+            sb.append(i == 0 ? "" : ", ").append(constraints.get(i).getName())
+                    .append(' ').append(penalties[i]).append(" x ").append(weights[i]);
+        }
+        return sb.toString();
+    }
+
+    private int[] emptySlots() {
+        int[] slots = new int[slotCount];
+        Arrays.fill(slots, -1);
+        return slots;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < constraints.size(); i++) {
+            if (constraints.get(i).getName().equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int require(String name) {
+        int index = indexOf(name);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown soft constraint '" + name + "'");
+        }
+        return index;
+    }
+
+    // Free teaching periods between a teacher's first and last period of each
+    // day, over every section. A change rescans that teacher's day only.
+    static final class TeacherGaps implements Constraint {
+
+        private final SchoolCalendar calendar;
+        private final int periodsPerDay;
+        private final int slotCount;
+        private final int teacherCount;
+        private final int[] booked;   // teacher * slotCount + slot
+        private final int[] dayGaps;  // teacher * days + day
+
+        TeacherGaps(ProblemInstance instance) {
+            calendar = instance.getCalendar();
+            periodsPerDay = instance.getPeriodsPerDay();
+            slotCount = instance.getSlotCount();
+            teacherCount = instance.getTeacherCount();
+            booked = new int[teacherCount * slotCount];
+            dayGaps = new int[teacherCount * instance.getDays()];
+        }
+
+        @Override
+        public String getName() {
+            return TEACHER_GAPS;
+        }
+
+        @Override
+        public void addSection(int section) {
+        }
+
+        @Override
+        public int add(int section, int slot, int teacher, int classroom, int subject) {
+            if (teacher < 0 || teacher >= teacherCount) return 0;
+            return ++booked[teacher * slotCount + slot] == 1 ? rescore(teacher, slot / periodsPerDay) : 0;
+        }
+
+        @Override
+        public int remove(int section, int slot, int teacher, int classroom, int subject) {
+            if (teacher < 0 || teacher >= teacherCount) return 0;
+            return --booked[teacher * slotCount + slot] == 0 ? rescore(teacher, slot / periodsPerDay) : 0;
+        }
+
+        private int rescore(int teacher, int day) {
+            int start = teacher * slotCount + day * periodsPerDay;
+            int first = -1;
+            int last = -1;
+            int taught = 0;
+            for (int period = 1; period <= periodsPerDay; period++) {
+                if (booked[start + period - 1] == 0) continue;
+                if (first < 0) first = period;
+                last = period;
+                if (!calendar.isBreak(period)) taught++;
+            }
+            int gaps = first < 0 ? 0 : calendar.countTeachingPeriods(first, last) - taught;
+            int index = teacher * calendar.getDays() + day;
+            int change = gaps - dayGaps[index];
+            dayGaps[index] = gaps;
+            return change;
+        }
+    }
+
+    // Pairs of consecutive days on which a section has the same subject, so
+    // three lessons go to Monday, Wednesday and Friday rather than Monday to
+    // Wednesday
+    static final class SubjectSpread implements Constraint {
+
+        private final int periodsPerDay;
+        private final int days;
+        private final int subjectCount;
+        private final List<int[]> periods = new ArrayList<>(); // per section: subject * days + day
+
+        SubjectSpread(ProblemInstance instance) {
+            periodsPerDay = instance.getPeriodsPerDay();
+            days = instance.getDays();
+            subjectCount = instance.getSubjectCount();
+        }
+
+        @Override
+        public String getName() {
+            return SUBJECT_SPREAD;
+        }
+
+        @Override
+        public void addSection(int section) {
+            periods.add(new int[subjectCount * days]);
+        }
+
+        @Override
+        public int add(int section, int slot, int teacher, int classroom, int subject) {
+            if (subject >= subjectCount) return 0;
+            int[] counts = periods.get(section);
+            int day = slot / periodsPerDay;
+            return ++counts[subject * days + day] == 1 ? neighbours(counts, subject, day) : 0;
+        }
+
+        @Override
+        public int remove(int section, int slot, int teacher, int classroom, int subject) {
+            if (subject >= subjectCount) return 0;
+            int[] counts = periods.get(section);
+            int day = slot / periodsPerDay;
+            return --counts[subject * days + day] == 0 ? -neighbours(counts, subject, day) : 0;
+        }
+
+        private int neighbours(int[] counts, int subject, int day) {
+            int found = 0;
+            if (day > 0 && counts[subject * days + day - 1] > 0) found++;
+            if (day < days - 1 && counts[subject * days + day + 1] > 0) found++;
+            return found;
+        }
+    }
+
+    // Labs beyond the first that a section's lab subject is taught in, so its
+    // practical work stays in one room through the week
+    static final class LabRoomChanges implements Constraint {
+
+        private final int[] labSubject;   // by subject: index among lab subjects, -1 otherwise
+        private final int[] labRoom;      // by classroom: index among labs, -1 otherwise
+        private final int labSubjectCount;
+        private final int labRoomCount;
+        private final List<int[]> periods = new ArrayList<>(); // per section: labSubject * labRoomCount + labRoom
+        private final List<int[]> roomsUsed = new ArrayList<>(); // per section: by lab subject
+
+        LabRoomChanges(ProblemInstance instance) {
+            labSubject = new int[instance.getSubjectCount()];
+            int subjects = 0;
+            for (int subject = 0; subject < labSubject.length; subject++) {
+                labSubject[subject] = instance.getSubject(subject).requiresLab() ? subjects++ : -1;
+            }
+            labRoom = new int[instance.getClassroomCount()];
+            int rooms = 0;
+            for (int classroom = 0; classroom < labRoom.length; classroom++) {
+                labRoom[classroom] = instance.getLabRooms().get(classroom) ? rooms++ : -1;
+            }
+            labSubjectCount = subjects;
+            labRoomCount = rooms;
+        }
+
+        @Override
+        public String getName() {
+            return LAB_ROOM_CHANGES;
+        }
+
+        @Override
+        public void addSection(int section) {
+            periods.add(new int[labSubjectCount * labRoomCount]);
+            roomsUsed.add(new int[labSubjectCount]);
+        }
+
+        @Override
+        public int add(int section, int slot, int teacher, int classroom, int subject) {
+            int index = index(subject, classroom);
+            if (index < 0 || ++periods.get(section)[index] > 1) return 0;
+            return ++roomsUsed.get(section)[labSubject[subject]] > 1 ? 1 : 0;
+        }
+
+        @Override
+        public int remove(int section, int slot, int teacher, int classroom, int subject) {
+            int index = index(subject, classroom);
+            if (index < 0 || --periods.get(section)[index] > 0) return 0;
+            return roomsUsed.get(section)[labSubject[subject]]-- > 1 ? -1 : 0;
+        }
+
+        private int index(int subject, int classroom) {
+            if (subject >= labSubject.length || classroom < 0 || classroom >= labRoom.length
+                    || labSubject[subject] < 0 || labRoom[classroom] < 0) {
+                return -1;
+            }
+            return labSubject[subject] * labRoomCount + labRoom[classroom];
+        }
+    }
+
+    // Heavy subjects late in the day. Late periods are the teaching periods
+    // after the last break (the second half of the day if there is none), and
+    // each costs its place among them: with a break in period 5 of 9, a heavy
+    // period costs 1 in period 6 and 4 in period 9. Subjects taught in blocks
+    // or in a lab are heavy unless a set of names is given.
+    static final class LateHeavySubjects implements Constraint {
+
+        private final int periodsPerDay;
+        private final int[] lateness;   // by period
+        private final boolean[] heavy;  // by subject
+
+        LateHeavySubjects(ProblemInstance instance) {
+            this(instance, null);
+        }
+
+        LateHeavySubjects(ProblemInstance instance, Set<String> heavySubjects) {
+            SchoolCalendar calendar = instance.getCalendar();
+            periodsPerDay = instance.getPeriodsPerDay();
+            lateness = new int[periodsPerDay + 1];
+            int[] teaching = calendar.getTeachingPeriods();
+            int[] breaks = calendar.getBreaks();
+            int lateFrom = breaks.length > 0 ? breaks[breaks.length - 1] + 1 : teaching[teaching.length / 2];
+            int rank = 0;
+            for (int period : teaching) {
+                if (period >= lateFrom) lateness[period] = ++rank;
+            }
+
+            heavy = new boolean[instance.getSubjectCount()];
+            for (int subject = 0; subject < heavy.length; subject++) {
+                heavy[subject] = heavySubjects != null
+                        ? heavySubjects.contains(instance.getSubject(subject).getName())
+                        : instance.getLessonLength(subject) > 1 || instance.getSubject(subject).requiresLab();
+            }
+        }
+
+        @Override
+        public String getName() {
+            return LATE_HEAVY_SUBJECTS;
+        }
+
+        @Override
+        public void addSection(int section) {
+        }
+
+        @Override
+        public int add(int section, int slot, int teacher, int classroom, int subject) {
+            return subject < heavy.length && heavy[subject] ? lateness[slot % periodsPerDay + 1] : 0;
+        }
+
+        @Override
+        public int remove(int section, int slot, int teacher, int classroom, int subject) {
+            return -add(section, slot, teacher, classroom, subject);
+        }
+    }
+}
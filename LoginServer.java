@@ -1,29 +1,110 @@
 import com.sun.net.httpserver.*;
+import java.awt.GraphicsEnvironment;
 import java.io.*;
+import java.lang.reflect.Method;
 import java.net.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.Executors;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 
 /**
  * Simple HTTP server for login and launching the Timetable Generator
- * Serves static files and handles login authentication
+ * Serves static files, handles login authentication and exposes a JSON API
+ * for teachers, subjects, classrooms and timetable generation jobs.
+ *
+ * Compile together with the timetable classes:
+ *   javac -d out LoginServer.java Automatic-TimeTable-Generator/src/*.java
+ *
+ * By default the timetable app runs inside this JVM, so logins open a window
+ * in milliseconds; start with --separate-process to launch it with java instead.
+ *
+ * HTTP options:
+ *   --executor virtual|fixed  one (virtual) thread per exchange, or a fixed pool (default: virtual)
+ *   --threads n               size of the fixed pool (default: 4)
+ *   --max-concurrent n        exchanges handled at once before answering 503 (default: 200)
+ *   --backlog n               pending connections the socket queues (default: 128)
  */
 public class LoginServer {
     private static final int PORT = 8080;
     private static final String USERNAME = "Admin";
     private static final String PASSWORD = "12345";
     private static Process timetableProcess = null;
+    private static boolean inProcess = true;
+
+    // HTTP execution settings, see the options above
+    private static String executorMode = "virtual";
+    private static int fixedThreads = 4;
+    private static int maxConcurrent = 200;
+    private static int backlog = 128;
+
+    // Blocking launcher work (javac, process start) runs here instead of on a request thread
+    private static final ExecutorService launcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "app-launcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Data managed through the API, shared by every browser session
+    private static final Registry<Teacher> teachers = new Registry<>();
+    private static final Registry<Subject> subjects = new Registry<>();
+    private static final Registry<Classroom> classrooms = new Registry<>();
+
+    // Solver jobs run here, never on the HTTP threads
+    private static final GenerationJobs jobs = new GenerationJobs(
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 32, 100);
 
     public static void main(String[] args) throws IOException {
-        HttpServer server = HttpServer.create(new InetSocketAddress(PORT), 0);
-        server.setExecutor(Executors.newFixedThreadPool(4));
+        try {
+            parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.err.println("Usage: java LoginServer [--separate-process] [--executor virtual|fixed] "
+                    + "[--threads n] [--max-concurrent n] [--backlog n]");
+            System.exit(64);
+        }
+        if (inProcess) {
+            InProcessApp.warmUp();
+        }
+
+        // Loopback only: the API has no authentication of its own
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), PORT), backlog);
+        server.setExecutor(createExecutor());
+        AdmissionFilter admission = new AdmissionFilter(maxConcurrent, 2000);
 
         // Serve static files
-        server.createContext("/", new StaticFileHandler());
+        StaticFileHandler staticFiles = new StaticFileHandler();
+        register(server, "/", staticFiles, admission);
+
+        // Login endpoint; contexts match by prefix, so it passes /login.html on to the files
+        register(server, "/login", new LoginHandler(staticFiles), admission);
+
+        // JSON API
+        register(server, "/api/teachers", new ResourceHandler<>("/api/teachers", teachers,
+                LoginServer::teacherFromJson, LoginServer::teacherToJson), admission);
+        register(server, "/api/subjects", new ResourceHandler<>("/api/subjects", subjects,
+                LoginServer::subjectFromJson, LoginServer::subjectToJson), admission);
+        register(server, "/api/classrooms", new ResourceHandler<>("/api/classrooms", classrooms,
+                LoginServer::classroomFromJson, LoginServer::classroomToJson), admission);
+        register(server, "/api/generate", new GenerateHandler(), admission);
+        register(server, "/api/jobs", new JobHandler(), admission);
 
-        // Login endpoint
-        server.createContext("/login", new LoginHandler());
+        // Solver and HTTP metrics in Prometheus text format
+        register(server, "/metrics", new MetricsHandler(), admission);
 
         server.start();
         System.out.println("========================================");
@@ -32,12 +113,204 @@ public class LoginServer {
         System.out.println("========================================");
     }
 
+    // Every route is timed (including any wait for admission) and admission-limited
+    private static void register(HttpServer server, String path, HttpHandler handler, Filter admission) {
+        HttpContext context = server.createContext(path, handler);
+        context.getFilters().add(new LatencyFilter(path));
+        context.getFilters().add(admission);
+    }
+
+    private static void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if ("--separate-process".equals(option)) {
+                inProcess = false;
+                continue;
+            }
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("unknown or incomplete option " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--executor":
+                    if (!"virtual".equals(value) && !"fixed".equals(value)) {
+                        throw new IllegalArgumentException("--executor must be virtual or fixed");
+                    }
+                    executorMode = value;
+                    break;
+                case "--threads":
+                    fixedThreads = positive(option, value);
+                    break;
+                case "--max-concurrent":
+                    maxConcurrent = positive(option, value);
+                    break;
+                case "--backlog":
+                    backlog = positive(option, value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option);
+            }
+        }
+    }
+
+    private static int positive(String option, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(option + " needs a positive number");
+    }
+
+    /**
+     * Virtual threads need Java 21, so the factory is looked up reflectively and
+     * the server still runs on older JDKs with a pool of platform threads that
+     * grows up to the admission limit
+     */
+    private static ExecutorService createExecutor() {
+        if ("fixed".equals(executorMode)) {
+            System.out.println("HTTP: fixed pool of " + fixedThreads + " threads");
+            return Executors.newFixedThreadPool(fixedThreads);
+        }
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            System.out.println("HTTP: one virtual thread per exchange, " + maxConcurrent + " at once");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("HTTP: virtual threads need Java 21, using up to " + maxConcurrent + " platform threads");
+            AtomicInteger threadNumber = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                        Thread thread = new Thread(runnable, "http-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * Records each request's latency per route, method and status code
+     */
+    static class LatencyFilter extends Filter {
+        private final String route;
+
+        LatencyFilter(String route) {
+            this.route = route;
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            long started = System.nanoTime();
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                // -1 means the handler failed before sending a response
+                int status = exchange.getResponseCode();
+                Metrics.shared().histogram("http_request_duration_seconds",
+                        "HTTP request latency by route, method and status", Metrics.LATENCY_BUCKETS,
+                        "route", route, "method", exchange.getRequestMethod(),
+                        "status", status < 0 ? "none" : String.valueOf(status))
+                        .observeNanos(System.nanoTime() - started);
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Latency metrics for " + route;
+        }
+    }
+
+    /**
+     * Serves every registered metric in Prometheus text format
+     */
+    static class MetricsHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1); // Method not allowed
+                    return;
+                }
+                byte[] body = Metrics.shared().toPrometheus().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(body);
+                }
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Caps the number of exchanges handled at once. Requests over the limit wait
+     * briefly for a slot and are then turned away with 503 rather than piling up
+     */
+    static class AdmissionFilter extends Filter {
+        private final int maxConcurrent;
+        private final Semaphore permits;
+        private final long waitMillis;
+
+        AdmissionFilter(int maxConcurrent, long waitMillis) {
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent);
+            this.waitMillis = waitMillis;
+        }
+
+        @Override
+        public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+            boolean admitted;
+            try {
+                admitted = permits.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                admitted = false;
+            }
+            if (!admitted) {
+                byte[] response = "503 - Server busy, try again shortly".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, response.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response);
+                }
+                exchange.close();
+                return;
+            }
+            try {
+                chain.doFilter(exchange);
+            } finally {
+                permits.release();
+            }
+        }
+
+        @Override
+        public String description() {
+            return "Limits concurrent exchanges to " + maxConcurrent;
+        }
+    }
+
     /**
      * Handles login authentication and launches the timetable app
      */
     static class LoginHandler implements HttpHandler {
+        private final HttpHandler staticFiles;
+
+        LoginHandler(HttpHandler staticFiles) {
+            this.staticFiles = staticFiles;
+        }
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
+            if (!"/login".equals(exchange.getRequestURI().getPath())) {
+                staticFiles.handle(exchange);
+                return;
+            }
             if ("POST".equals(exchange.getRequestMethod())) {
                 // Read request body
                 InputStreamReader isr = new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8);
@@ -67,11 +340,19 @@ public class LoginServer {
                 boolean success = USERNAME.equals(username) && PASSWORD.equals(password);
 
                 if (success) {
-                    // Launch timetable generator app
-                    launchTimetableApp();
+                    // Open the timetable generator app
+                    boolean opened = true;
+                    if (inProcess) {
+                        opened = InProcessApp.open();
+                    } else {
+                        // Compiling and starting the app blocks, so keep it off this thread
+                        launcher.execute(this::launchTimetableApp);
+                    }
 
                     // Send success response
-                    String response = "{\"success\": true, \"message\": \"Login successful! Launching Timetable Generator...\"}";
+                    String response = opened
+                            ? "{\"success\": true, \"message\": \"Login successful! Opening Timetable Generator...\"}"
+                            : "{\"success\": true, \"message\": \"Login successful, but no display is available for the Timetable Generator.\"}";
                     exchange.getResponseHeaders().set("Content-Type", "application/json");
                     exchange.sendResponseHeaders(200, response.getBytes().length);
                     OutputStream os = exchange.getResponseBody();
@@ -92,7 +373,7 @@ public class LoginServer {
         }
 
         /**
-         * Launches the Timetable Generator application
+         * Launches the Timetable Generator application as a separate process
          */
         private void launchTimetableApp() {
             try {
@@ -135,11 +416,125 @@ public class LoginServer {
     }
 
     /**
-     * Serves static files (HTML, CSS, JS, images)
+     * Runs the timetable app inside the server JVM. The models are created once
+     * and shared by every window, the solver is warmed up at startup, and a
+     * window is built ahead of time so a login only has to show it. The models
+     * are loaded from, and saved to, one data store for the whole server.
+     */
+    static class InProcessApp {
+        private static final TeacherTableModel teacherModel = new TeacherTableModel();
+        private static final SubjectTableModel subjectModel = new SubjectTableModel();
+        private static final ClassroomTableModel classroomModel = new ClassroomTableModel();
+
+        // Built but not yet shown; only touched on the EDT
+        private static TimetableGeneratorApp spareWindow;
+        private static SchoolDataStore store;
+
+        static void warmUp() {
+            Thread solverWarmUp = new Thread(InProcessApp::warmUpSolver, "solver-warmup");
+            solverWarmUp.setDaemon(true);
+            solverWarmUp.start();
+            if (!GraphicsEnvironment.isHeadless()) {
+                SwingUtilities.invokeLater(() -> {
+                    openStore();
+                    prepareSpareWindow();
+                });
+            }
+        }
+
+        private static void openStore() {
+            store = SchoolDataStore.openAttached(teacherModel, subjectModel, classroomModel);
+            if (store != null) {
+                // Fold the journal into the snapshot when the server stops
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        store.close();
+                    } catch (IOException e) {
+                        System.err.println("Could not compact saved data: " + e.getMessage());
+                    }
+                }, "data-store-close"));
+            }
+        }
+
+        // Opens a window over the shared models; false when there is no display
+        static boolean open() {
+            if (GraphicsEnvironment.isHeadless()) {
+                System.err.println("No display available, the Timetable Generator window cannot open.");
+                return false;
+            }
+            SwingUtilities.invokeLater(() -> {
+                prepareSpareWindow();
+                TimetableGeneratorApp window = spareWindow;
+                spareWindow = null;
+                window.setVisible(true);
+                window.toFront();
+                // Build the next window once this one has painted
+                SwingUtilities.invokeLater(InProcessApp::prepareSpareWindow);
+            });
+            return true;
+        }
+
+        private static void prepareSpareWindow() {
+            if (spareWindow == null) {
+                spareWindow = new TimetableGeneratorApp(teacherModel, subjectModel, classroomModel, store);
+                // Closing a window must not stop the server
+                spareWindow.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            }
+        }
+
+        // Loads and JIT-compiles the scheduling code on a small problem
+        private static void warmUpSolver() {
+            long started = System.nanoTime();
+            List<Subject> subjects = List.of(
+                    new Subject("Combined Maths", 4, false), new Subject("Physics", 3, true),
+                    new Subject("Chemistry", 3, true), new Subject("English", 2, false));
+            List<Teacher> teachers = List.of(
+                    new Teacher("Warm-up A", List.of("Combined Maths", "Physics"), 4),
+                    new Teacher("Warm-up B", List.of("Chemistry", "English"), 4));
+            List<Classroom> rooms = List.of(new Classroom("Room", false, 40), new Classroom("Lab", true, 40));
+            for (int round = 0; round < 20; round++) {
+                for (SolverEngine engine : SolverEngine.values()) {
+                    TimetableGenerator generator = new TimetableGenerator(9, engine);
+                    generator.setSeed(round);
+                    generator.setReportUnscheduled(false);
+                    generator.setRecordMetrics(false);
+                    generator.setImprovementMoves(round % 4 == 0 ? 20_000 : 0);
+                    generator.generateTimetable(teachers, subjects, rooms);
+                }
+            }
+            System.out.printf("Solver warmed up in %d ms%n", (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+    /**
+     * Serves static files (HTML, CSS, JS, images) from an in-memory cache.
+     * Entries are reloaded when the file's modification time or size changes,
+     * text files keep a gzip copy, and ETag / Last-Modified let browsers
+     * revalidate with a 304. Files too large to cache are streamed from disk.
      */
     static class StaticFileHandler implements HttpHandler {
+        private static final long MAX_CACHED_SIZE = 1024 * 1024;
+        private static final Path ROOT = Paths.get(".").toAbsolutePath().normalize();
+        private static final DateTimeFormatter HTTP_DATE =
+                DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+        private final Map<Path, Asset> cache = new ConcurrentHashMap<>();
+
         @Override
         public void handle(HttpExchange exchange) throws IOException {
+            try {
+                serve(exchange);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            boolean head = "HEAD".equals(exchange.getRequestMethod());
+            if (!head && !"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1); // Method not allowed
+                return;
+            }
             String path = exchange.getRequestURI().getPath();
 
             // Default to login.html
@@ -147,27 +542,125 @@ public class LoginServer {
                 path = "/login.html";
             }
 
-            File file = new File("." + path);
+            // Only files inside the server directory are served
+            Path file = ROOT.resolve(path.substring(1)).normalize();
+            BasicFileAttributes attributes = null;
+            if (file.startsWith(ROOT)) {
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (IOException e) {
+                    // Missing or unreadable, answered with 404 below
+                }
+            }
+            if (attributes == null || !attributes.isRegularFile()) {
+                // 404 Not Found
+                byte[] response = "404 - File Not Found".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(404, response.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(response);
+                }
+                return;
+            }
 
-            if (file.exists() && file.isFile()) {
-                // Determine content type
-                String contentType = getContentType(path);
-                exchange.getResponseHeaders().set("Content-Type", contentType);
+            long modified = attributes.lastModifiedTime().toMillis();
+            Asset asset = cache.get(file);
+            if (asset == null || asset.lastModified != modified || asset.size != attributes.size()) {
+                asset = Asset.load(file, getContentType(path), modified, attributes.size());
+                if (asset.body != null) {
+                    cache.put(file, asset);
+                } else {
+                    cache.remove(file);
+                }
+            }
 
-                // Send file
-                byte[] bytes = Files.readAllBytes(file.toPath());
-                exchange.sendResponseHeaders(200, bytes.length);
-                OutputStream os = exchange.getResponseBody();
-                os.write(bytes);
-                os.close();
-            } else {
-                // 404 Not Found
-                String response = "404 - File Not Found";
-                exchange.sendResponseHeaders(404, response.getBytes().length);
-                OutputStream os = exchange.getResponseBody();
-                os.write(response.getBytes());
-                os.close();
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", asset.contentType);
+            headers.set("ETag", asset.etag);
+            headers.set("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(asset.lastModified)));
+            // Browsers may keep a copy but must revalidate, so edits show up at once
+            headers.set("Cache-Control", "no-cache");
+            if (asset.gzipped != null) {
+                headers.set("Vary", "Accept-Encoding");
+            }
+
+            if (isNotModified(exchange.getRequestHeaders(), asset)) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            byte[] body = asset.body;
+            if (asset.gzipped != null && acceptsGzip(exchange.getRequestHeaders())) {
+                headers.set("Content-Encoding", "gzip");
+                body = asset.gzipped;
+            }
+            if (body != null) {
+                exchange.sendResponseHeaders(200, head ? -1 : body.length);
+                if (!head) {
+                    try (OutputStream os = exchange.getResponseBody()) {
+                        os.write(body);
+                    }
+                }
+                return;
+            }
+
+            // Too large to cache: the channel copies from disk without a whole-file array
+            exchange.sendResponseHeaders(200, head ? -1 : asset.size);
+            if (!head) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                     OutputStream os = exchange.getResponseBody()) {
+                    WritableByteChannel out = Channels.newChannel(os);
+                    long position = 0;
+                    while (position < asset.size) {
+                        long sent = channel.transferTo(position, asset.size - position, out);
+                        if (sent <= 0) {
+                            break;
+                        }
+                        position += sent;
+                    }
+                }
+            }
+        }
+
+        // If-None-Match wins over If-Modified-Since when both are sent
+        private static boolean isNotModified(Headers request, Asset asset) {
+            String noneMatch = request.getFirst("If-None-Match");
+            if (noneMatch != null) {
+                for (String tag : noneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) {
+                        tag = tag.substring(2);
+                    }
+                    if (tag.equals("*") || tag.equals(asset.etag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            String modifiedSince = request.getFirst("If-Modified-Since");
+            if (modifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(modifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                            .toInstant().getEpochSecond();
+                    return asset.lastModified / 1000 <= since;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
             }
+            return false;
+        }
+
+        private static boolean acceptsGzip(Headers request) {
+            String accept = request.getFirst("Accept-Encoding");
+            if (accept == null) {
+                return false;
+            }
+            for (String coding : accept.split(",")) {
+                String[] parts = coding.trim().split(";");
+                if (parts[0].trim().equalsIgnoreCase("gzip")) {
+                    return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+                }
+            }
+            return false;
         }
 
         /**
@@ -182,5 +675,392 @@ public class LoginServer {
             if (path.endsWith(".gif")) return "image/gif";
             return "text/plain";
         }
+
+        /**
+         * One file as served: body and gzip copy are null when it is too large to cache
+         */
+        static class Asset {
+            final String contentType;
+            final long lastModified;
+            final long size;
+            final String etag;
+            final byte[] body;
+            final byte[] gzipped;
+
+            private Asset(String contentType, long lastModified, long size, byte[] body, byte[] gzipped) {
+                this.contentType = contentType;
+                this.lastModified = lastModified;
+                this.size = size;
+                this.etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+                this.body = body;
+                this.gzipped = gzipped;
+            }
+
+            static Asset load(Path file, String contentType, long lastModified, long size) throws IOException {
+                if (size > MAX_CACHED_SIZE) {
+                    return new Asset(contentType, lastModified, size, null, null);
+                }
+                byte[] body = Files.readAllBytes(file);
+                byte[] gzipped = null;
+                if (contentType.startsWith("text/") || contentType.equals("application/javascript")) {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 2 + 64);
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(buffer)) {
+                        gzip.write(body);
+                    }
+                    // Only worth sending when it is actually smaller
+                    if (buffer.size() < body.length) {
+                        gzipped = buffer.toByteArray();
+                    }
+                }
+                return new Asset(contentType, lastModified, body.length, body, gzipped);
+            }
+        }
+    }
+
+    // ---- JSON API ----
+
+    private static Teacher teacherFromJson(Map<String, Object> json) {
+        long max = Json.number(json, "maxPeriodPerDay", 0);
+        if (max < 1) {
+            throw new IllegalArgumentException("'maxPeriodPerDay' must be at least 1");
+        }
+        return new Teacher(Json.string(json, "name"), Json.strings(json, "subjects"), (int) max);
+    }
+
+    private static Map<String, Object> teacherToJson(Teacher teacher) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", teacher.getName());
+        json.put("subjects", teacher.getSubjects());
+        json.put("maxPeriodPerDay", teacher.getMaxPeriodPerDay());
+        return json;
+    }
+
+    private static Subject subjectFromJson(Map<String, Object> json) {
+        long weekly = Json.number(json, "weeklyPeriod", 0);
+        if (weekly < 1) {
+            throw new IllegalArgumentException("'weeklyPeriod' must be at least 1");
+        }
+        return new Subject(Json.string(json, "name"), (int) weekly, Json.bool(json, "requiresLab", false));
+    }
+
+    private static Map<String, Object> subjectToJson(Subject subject) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", subject.getName());
+        json.put("weeklyPeriod", subject.getWeeklyPeriod());
+        json.put("requiresLab", subject.requiresLab());
+        return json;
+    }
+
+    private static Classroom classroomFromJson(Map<String, Object> json) {
+        long capacity = Json.number(json, "capacity", 0);
+        if (capacity < 0) {
+            throw new IllegalArgumentException("'capacity' cannot be negative");
+        }
+        return new Classroom(Json.string(json, "name"), Json.bool(json, "lab", false), (int) capacity);
+    }
+
+    private static Map<String, Object> classroomToJson(Classroom classroom) {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", classroom.getClassRoom());
+        json.put("lab", classroom.isLab());
+        json.put("capacity", classroom.getCapacity());
+        return json;
+    }
+
+    /**
+     * Items with server-assigned ids, in the order they were added
+     */
+    static class Registry<T> {
+        private final Map<Integer, T> items = new LinkedHashMap<>();
+        private int nextId = 1;
+
+        synchronized int add(T item) {
+            int id = nextId++;
+            items.put(id, item);
+            return id;
+        }
+
+        synchronized T get(int id) {
+            return items.get(id);
+        }
+
+        synchronized boolean remove(int id) {
+            return items.remove(id) != null;
+        }
+
+        synchronized Map<Integer, T> snapshot() {
+            return new LinkedHashMap<>(items);
+        }
+
+        synchronized List<T> values() {
+            return new ArrayList<>(items.values());
+        }
+    }
+
+    /**
+     * Common plumbing for API handlers: request checks, JSON bodies and error responses.
+     * There are no CORS headers, so other sites' pages cannot read the API, and
+     * POST bodies must be JSON, so they cannot send it form posts either (a
+     * cross-origin JSON request needs a preflight this server never allows).
+     * Requests must be addressed to localhost, which stops DNS rebinding.
+     * Bodies over MAX_BODY_BYTES are refused, and JSON nested deeper than
+     * Json.MAX_DEPTH is a 400.
+     */
+    abstract static class ApiHandler implements HttpHandler {
+        static final int MAX_BODY_BYTES = 1024 * 1024;
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                if (!isLocalHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                    sendError(exchange, 403, "The API only answers requests to localhost");
+                } else if ("POST".equals(exchange.getRequestMethod()) && !isJson(exchange)) {
+                    sendError(exchange, 415, "POST bodies must be application/json");
+                } else if (declaredLength(exchange) > MAX_BODY_BYTES) {
+                    sendError(exchange, 413, "Request bodies are limited to " + MAX_BODY_BYTES + " bytes");
+                } else {
+                    serve(exchange);
+                }
+            } catch (RuntimeException e) {
+                if (exchange.getResponseCode() != -1) {
+                    // The status line is already sent, so no error response can follow.
+                    // Rethrowing without closing the exchange makes the server drop the
+                    // connection, so the client sees a failed download, not a short one.
+                    System.err.println("API error on " + exchange.getRequestURI() + " after the response began: " + e);
+                    throw e;
+                }
+                if (e instanceof IllegalArgumentException) {
+                    sendError(exchange, 400, e.getMessage());
+                } else {
+                    System.err.println("API error on " + exchange.getRequestURI() + ": " + e);
+                    sendError(exchange, 500, "Internal server error");
+                }
+            }
+            exchange.close();
+        }
+
+        abstract void serve(HttpExchange exchange) throws IOException;
+
+        private static boolean isLocalHost(String host) {
+            if (host == null) {
+                return false;
+            }
+            String name = host.startsWith("[") ? host.substring(0, host.indexOf(']') + 1)
+                    : host.contains(":") ? host.substring(0, host.lastIndexOf(':')) : host;
+            return name.equalsIgnoreCase("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+        }
+
+        private static boolean isJson(HttpExchange exchange) {
+            String type = exchange.getRequestHeaders().getFirst("Content-Type");
+            return type != null && type.toLowerCase(Locale.ROOT).startsWith("application/json");
+        }
+
+        // Content-Length, or -1 if absent (a chunked body is checked as it is read)
+        private static long declaredLength(HttpExchange exchange) {
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            try {
+                return length != null ? Long.parseLong(length.trim()) : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        static Map<String, Object> readJson(HttpExchange exchange) throws IOException {
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new IllegalArgumentException("Request bodies are limited to " + MAX_BODY_BYTES + " bytes");
+            }
+            if (body.length == 0) {
+                return new LinkedHashMap<>();
+            }
+            return Json.parseObject(new String(body, StandardCharsets.UTF_8));
+        }
+
+        static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+            byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+
+        static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+            sendJson(exchange, status, Map.of("error", message != null ? message : "Error"));
+        }
+
+        // The path segment after the context path, or null for the collection itself
+        static String pathId(HttpExchange exchange, String contextPath) {
+            String rest = exchange.getRequestURI().getPath().substring(contextPath.length());
+            if (rest.startsWith("/")) {
+                rest = rest.substring(1);
+            }
+            if (rest.endsWith("/")) {
+                rest = rest.substring(0, rest.length() - 1);
+            }
+            return rest.isEmpty() ? null : rest;
+        }
+
+        static int numericId(String id) {
+            try {
+                return Integer.parseInt(id);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * GET lists items, POST adds one, DELETE /{id} removes one
+     */
+    static class ResourceHandler<T> extends ApiHandler {
+        private final String contextPath;
+        private final Registry<T> registry;
+        private final Function<Map<String, Object>, T> fromJson;
+        private final Function<T, Map<String, Object>> toJson;
+
+        ResourceHandler(String contextPath, Registry<T> registry,
+                        Function<Map<String, Object>, T> fromJson, Function<T, Map<String, Object>> toJson) {
+            this.contextPath = contextPath;
+            this.registry = registry;
+            this.fromJson = fromJson;
+            this.toJson = toJson;
+        }
+
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String id = pathId(exchange, contextPath);
+
+            if (id == null && "GET".equals(method)) {
+                List<Object> items = new ArrayList<>();
+                for (Map.Entry<Integer, T> item : registry.snapshot().entrySet()) {
+                    items.add(withId(item.getKey(), item.getValue()));
+                }
+                sendJson(exchange, 200, items);
+            } else if (id == null && "POST".equals(method)) {
+                T item = fromJson.apply(readJson(exchange));
+                int newId = registry.add(item);
+                exchange.getResponseHeaders().set("Location", contextPath + "/" + newId);
+                sendJson(exchange, 201, withId(newId, item));
+            } else if (id != null && "GET".equals(method)) {
+                T item = registry.get(numericId(id));
+                if (item == null) {
+                    sendError(exchange, 404, "No item with id " + id);
+                } else {
+                    sendJson(exchange, 200, withId(numericId(id), item));
+                }
+            } else if (id != null && "DELETE".equals(method)) {
+                if (registry.remove(numericId(id))) {
+                    exchange.sendResponseHeaders(204, -1);
+                } else {
+                    sendError(exchange, 404, "No item with id " + id);
+                }
+            } else {
+                sendError(exchange, 405, "Method not allowed");
+            }
+        }
+
+        private Map<String, Object> withId(int id, T item) {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("id", id);
+            json.putAll(toJson.apply(item));
+            return json;
+        }
+    }
+
+    /**
+     * POST queues a generation job for the current data and returns its id
+     */
+    static class GenerateHandler extends ApiHandler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            GenerationJobs.Request request = GenerationJobs.Request.fromJson(readJson(exchange),
+                    teachers.values(), subjects.values(), classrooms.values());
+            GenerationJobs.Job job;
+            try {
+                job = jobs.submit(request);
+            } catch (RejectedExecutionException e) {
+                exchange.getResponseHeaders().set("Retry-After", "5");
+                sendError(exchange, 503, "Too many generation jobs queued, try again shortly");
+                return;
+            }
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("id", job.id);
+            response.put("status", job.getStatus().name().toLowerCase());
+            response.put("location", "/api/jobs/" + job.id);
+            exchange.getResponseHeaders().set("Location", "/api/jobs/" + job.id);
+            sendJson(exchange, 202, response);
+        }
+    }
+
+    /**
+     * GET /{id} returns a job's status and result, DELETE /{id} cancels it,
+     * GET /{id}/export downloads the timetables
+     */
+    static class JobHandler extends ApiHandler {
+        @Override
+        void serve(HttpExchange exchange) throws IOException {
+            String id = pathId(exchange, "/api/jobs");
+            boolean export = id != null && id.endsWith("/export");
+            if (export) {
+                id = id.substring(0, id.length() - "/export".length());
+            }
+            GenerationJobs.Job job = id != null ? jobs.get(id) : null;
+            if (job == null) {
+                sendError(exchange, 404, "No job with id " + id);
+                return;
+            }
+            if (export) {
+                if ("GET".equals(exchange.getRequestMethod())) {
+                    export(exchange, job);
+                } else {
+                    sendError(exchange, 405, "Method not allowed");
+                }
+            } else if ("GET".equals(exchange.getRequestMethod())) {
+                sendJson(exchange, 200, job.toJson());
+            } else if ("DELETE".equals(exchange.getRequestMethod())) {
+                jobs.cancel(id);
+                sendJson(exchange, 200, job.toJson());
+            } else {
+                sendError(exchange, 405, "Method not allowed");
+            }
+        }
+
+        // Streams the finished timetables; ?format=csv|json|ics, default json
+        private static void export(HttpExchange exchange, GenerationJobs.Job job) throws IOException {
+            Map<String, Timetable> result = job.getResult();
+            if (result == null) {
+                sendError(exchange, 409, "Job " + job.id + " has no timetable yet");
+                return;
+            }
+            String query = exchange.getRequestURI().getQuery();
+            String format = "json";
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    if (parameter.startsWith("format=")) {
+                        format = parameter.substring("format=".length());
+                    }
+                }
+            }
+            TimetableExporter exporter = new TimetableExporter(TimetableExporter.Format.parse(format));
+            exchange.getResponseHeaders().set("Content-Type", exporter.getFormat().contentType + "; charset=utf-8");
+            exchange.getResponseHeaders().set("Content-Disposition",
+                    "attachment; filename=\"timetable-" + job.id + "." + exporter.getFormat().extension + "\"");
+            // Length 0 means chunked, so the export is sent as it is written
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream os = exchange.getResponseBody();
+            try {
+                exporter.export(result, os);
+            } catch (IOException e) {
+                // Handled like any failure once the response has begun: see ApiHandler
+                throw new UncheckedIOException(e);
+            }
+            os.close();
+        }
     }
 }
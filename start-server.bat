@@ -4,8 +4,8 @@ echo Timetable Generator Login Server
 echo ========================================
 echo.
 
-echo Compiling LoginServer.java...
-javac LoginServer.java
+echo Compiling LoginServer.java and the timetable classes...
+javac -d out LoginServer.java Automatic-TimeTable-Generator\src\*.java
 
 if %errorlevel% neq 0 (
     echo.
@@ -22,6 +22,6 @@ echo.
 
 start http://127.0.0.1:8080/
 
-java LoginServer
+java -cp out LoginServer
 
 pause